@@ -0,0 +1,88 @@
+package erehwon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the hot paths of RedBlueGrid over grid size, neighbourhood distance,
+ * vacancy fraction and happiness threshold. Every grid is seeded, so each run measures
+ * the same workload. Run with ./gradlew jmh; the gc profiler reports allocations per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedBlueGridBenchmark {
+    private static final long SEED = 221L;
+    private static final double FRACTION_RED = 0.5;
+
+    @Param({"64", "256", "1024"})
+    public int size;
+
+    @Param({"1", "5"})
+    public int neighborhoodDistance;
+
+    @Param({"0.1", "0.3"})
+    public double fractionVacant;
+
+    @Param({"0.3", "0.7"})
+    public double happinessThreshold;
+
+    private RedBlueGrid grid;
+
+    /**
+     * A fresh grid for every iteration, so that every iteration measures the same workload. Only the first
+     * invocation of an iteration steps the random arrangement; the rest step a grid that is settling, so
+     * oneTimeStep, directedSteps and simulate report the average over an iteration's worth of settling steps,
+     * not the cost of a step from a random arrangement. A fresh grid per invocation would cost more than
+     * most of the steps measured.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        grid = new RedBlueGrid(size, neighborhoodDistance, fractionVacant, FRACTION_RED, happinessThreshold, SEED);
+    }
+
+    @Benchmark
+    public void reset() {
+        grid.reset(fractionVacant, FRACTION_RED, happinessThreshold, SEED);
+    }
+
+    @Benchmark
+    public void happyNeighbours(Blackhole blackhole) {
+        for (int row = 0; row < size; row += 7) {
+            for (int col = 0; col < size; col += 7) {
+                blackhole.consume(grid.happyNeighbours(row, col, Color.RED));
+            }
+        }
+    }
+
+    @Benchmark
+    public double fractionHappy() {
+        return grid.fractionHappy();
+    }
+
+    @Benchmark
+    public int oneTimeStep() {
+        return grid.oneTimeStep();
+    }
+
+    @Benchmark
+    public int directedSteps() {
+        return grid.directedSteps();
+    }
+
+    @Benchmark
+    public SimulationResult simulate() {
+        return grid.simulate(5);
+    }
+}
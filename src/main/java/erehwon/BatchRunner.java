@@ -0,0 +1,213 @@
+package erehwon;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a SweepSpec without the UI, simulating the runs on a fixed number of worker threads and writing
+ * one CSV line per run as soon as it finishes.
+ *
+ * Each worker keeps one RedBlueGrid. When its next run has the same size and distance as its last one
+ * it resets that grid with the run's fractions and seed instead of building a new one, so the cell
+ * array, the neighbour counts and the step buffers are allocated once per worker and size, not once per run.
+ * Since the runs of a spec come grouped by size and distance, that is nearly every run.
+ *
+ * Lines are written in the order runs finish; the run column gives each run's position in SweepSpec.runs.
+ */
+public final class BatchRunner {
+    private static final String HEADER = "run,size,distance,fractionVacant,fractionRed,happinessThreshold,seed,"
+            + "steps,outcome,happyRed,unhappyRed,happyBlue,unhappyBlue,fractionHappy,elapsedNanos";
+
+    private final SweepSpec spec;
+    private final int threads;
+
+    /**
+     * @param spec the sweep to run, cannot be null
+     * @param threads the number of worker threads, threads >= 1
+     * @throws IllegalArgumentException if spec is null or threads < 1
+     */
+    public BatchRunner(SweepSpec spec, int threads) {
+        if (spec == null) {
+            throw new IllegalArgumentException("The spec cannot be null.");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("There must be at least one thread.");
+        }
+        this.spec = spec;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs every run of the spec and writes a header and then one line per run to out.
+     * Returns once all runs are done, or once one of them fails and the others have stopped; the rows of the
+     * runs that finished are written either way.
+     * @param out where to write the results, cannot be null; it is flushed but not closed
+     * @return the number of runs
+     * @throws IOException if out cannot be written
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the workers
+     */
+    public int run(Writer out) throws IOException, InterruptedException {
+        if (out == null) {
+            throw new IllegalArgumentException("The writer cannot be null.");
+        }
+        List<SweepSpec.Run> runs = spec.runs();
+        BufferedWriter lines = new BufferedWriter(out, 1 << 16);
+        lines.write(HEADER);
+        lines.newLine();
+
+        AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(threads, runs.size()); i++) {
+            workers.add(() -> {
+                work(runs, next, lines);
+                return null;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+        boolean finished = false;
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (Callable<Void> worker : workers) {
+                done.add(pool.submit(worker));
+            }
+            for (Future<Void> worker : done) {
+                worker.get();
+            }
+            finished = true;
+        } catch (ExecutionException e) {
+            //stop the other workers taking more runs, and report the first failure
+            next.set(runs.size());
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            //no worker may still be writing once run returns, and the rows finished so far are written out
+            //even when a run failed
+            awaitWorkers(pool);
+            try {
+                lines.flush();
+            } catch (IOException e) {
+                //a failure already on its way out is the one to report
+                if (finished) {
+                    throw e;
+                }
+            }
+        }
+        return runs.size();
+    }
+
+    /**
+     * Waits for the workers of a pool that was shut down to end, even if the calling thread is interrupted.
+     * They stop soon: a run takes no more steps once its thread is interrupted.
+     */
+    private static void awaitWorkers(ExecutorService pool) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes runs from the shared list until there are none left, reusing one grid for as long as the size
+     * and distance stay the same
+     */
+    private void work(List<SweepSpec.Run> runs, AtomicInteger next, Writer lines) {
+        RedBlueGrid grid = null;
+        StringBuilder line = new StringBuilder(200);
+        for (int index = next.getAndIncrement(); index < runs.size(); index = next.getAndIncrement()) {
+            SweepSpec.Run run = runs.get(index);
+            long start = System.nanoTime();
+            if (grid == null || grid.getSize() != run.getSize()
+                    || grid.getNeighborhoodDistance() != run.getDistance()) {
+                grid = new RedBlueGrid(run.getSize(), run.getDistance(), run.getFractionVacant(),
+                        run.getFractionRed(), run.getHappinessThreshold(), run.getSeed());
+            } else {
+                grid.reset(run.getFractionVacant(), run.getFractionRed(), run.getHappinessThreshold(), run.getSeed());
+            }
+            SimulationResult result = grid.simulate(spec.getSteps());
+            long elapsed = System.nanoTime() - start;
+
+            HappinessCensus census = result.getCensus();
+            line.setLength(0);
+            line.append(index).append(',')
+                    .append(run.getSize()).append(',')
+                    .append(run.getDistance()).append(',')
+                    .append(run.getFractionVacant()).append(',')
+                    .append(run.getFractionRed()).append(',')
+                    .append(run.getHappinessThreshold()).append(',')
+                    .append(run.getSeed()).append(',')
+                    .append(result.getSteps()).append(',')
+                    .append(result.getOutcome()).append(',')
+                    .append(census.getHappyRed()).append(',')
+                    .append(census.getUnhappyRed()).append(',')
+                    .append(census.getHappyBlue()).append(',')
+                    .append(census.getUnhappyBlue()).append(',')
+                    .append(result.getFractionHappy()).append(',')
+                    .append(elapsed).append('\n');
+            try {
+                synchronized (lines) {
+                    lines.append(line);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs a sweep from the command line:
+     * java erehwon.BatchRunner spec-file output-file [threads]
+     * threads defaults to the number of processors.
+     * @param args the spec file, the CSV file to write and optionally the number of threads
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: java erehwon.BatchRunner spec-file output-file [threads]");
+            System.exit(2);
+        }
+        int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        SweepSpec spec;
+        try (Reader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            spec = SweepSpec.parse(in);
+        }
+        Path output = Paths.get(args[1]);
+        long start = System.nanoTime();
+        int runs;
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            runs = new BatchRunner(spec, threads).run(out);
+        }
+        System.out.println(runs + " runs written to " + output + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
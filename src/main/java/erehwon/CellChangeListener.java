@@ -0,0 +1,24 @@
+package erehwon;
+
+/**
+ * Told which cells of a RedBlueGrid changed, so that a view can redraw those cells instead of the whole grid.
+ * Set one with RedBlueGrid.setCellChangeListener.
+ *
+ * The cells changed by a time step are reported together once the step is done, and a cell changed by
+ * setColor or shiftColor is reported at once. Calls come on the thread that changed the grid.
+ */
+public interface CellChangeListener {
+
+    /**
+     * Called with a batch of changed cells
+     * @param cells the row-major indices of the cells that changed are cells[0] to cells[count - 1]. An index can
+     *              appear more than once. The array belongs to the grid and is only valid during the call.
+     * @param count the number of indices, >= 1
+     */
+    void cellsChanged(int[] cells, int count);
+
+    /**
+     * Called when any cell may have changed, as after reset
+     */
+    void allCellsChanged();
+}
@@ -0,0 +1,131 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * Three disjoint sets of cell indices for a RedBlueGrid: the vacant cells, the unhappy red residents
+ * and the unhappy blue residents. A cell is in at most one of them.
+ *
+ * Each set is a dense array of its members, and every cell remembers which set it is in and its
+ * position there. Adding, removing and picking the member at a position are all O(1); removing
+ * swaps the last member into the hole, so the order of members depends on the history of changes.
+ * Each set also keeps a bitmap of its members, one bit per cell, so that they can be listed in
+ * row-major order whatever that history was, at a cost of one word read per 64 cells.
+ */
+final class CellSets {
+    static final byte NONE = -1;
+    static final byte VACANT = 0;
+    static final byte UNHAPPY_RED = 1;
+    static final byte UNHAPPY_BLUE = 2;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    //for every cell, the set it is in (or NONE) and its position in that set's members
+    private final byte[] setOf;
+    private final int[] position;
+    //the members of each set, in members[set][0 .. sizes[set])
+    private final int[][] members = new int[3][];
+    private final int[] sizes = new int[3];
+    //one bit per cell for each set, set for its members
+    private final long[][] bits = new long[3][];
+
+    /**
+     * Creates three empty sets over the given number of cells
+     * @param cells the number of cells in the grid, >= 1
+     */
+    CellSets(int cells) {
+        this.setOf = new byte[cells];
+        this.position = new int[cells];
+        for (int set = 0; set < members.length; set++) {
+            members[set] = new int[Math.min(cells, INITIAL_CAPACITY)];
+            bits[set] = new long[(cells + 63) / 64];
+        }
+        clear();
+    }
+
+    /**
+     * Empties all three sets
+     */
+    void clear() {
+        Arrays.fill(setOf, NONE);
+        Arrays.fill(sizes, 0);
+        for (long[] set : bits) {
+            Arrays.fill(set, 0L);
+        }
+    }
+
+    /**
+     * @param cell a row-major cell index
+     * @return the set the cell is in, or NONE
+     */
+    byte setOf(int cell) {
+        return setOf[cell];
+    }
+
+    /**
+     * Moves a cell into a set, taking it out of the set it was in
+     * @param cell a row-major cell index
+     * @param set VACANT, UNHAPPY_RED, UNHAPPY_BLUE, or NONE to only take it out
+     */
+    void put(int cell, byte set) {
+        byte current = setOf[cell];
+        if (current == set) {
+            return;
+        }
+        if (current != NONE) {
+            //fill the hole with the last member
+            int hole = position[cell];
+            int last = members[current][--sizes[current]];
+            members[current][hole] = last;
+            position[last] = hole;
+            bits[current][cell >>> 6] &= ~(1L << cell);
+        }
+        setOf[cell] = set;
+        if (set != NONE) {
+            if (sizes[set] == members[set].length) {
+                members[set] = Arrays.copyOf(members[set], Math.min(setOf.length, members[set].length * 2));
+            }
+            position[cell] = sizes[set];
+            members[set][sizes[set]++] = cell;
+            bits[set][cell >>> 6] |= 1L << cell;
+        }
+    }
+
+    /**
+     * @param set VACANT, UNHAPPY_RED or UNHAPPY_BLUE
+     * @return the number of cells in the set
+     */
+    int size(byte set) {
+        return sizes[set];
+    }
+
+    /**
+     * @param set VACANT, UNHAPPY_RED or UNHAPPY_BLUE
+     * @param index a position in the set, 0 <= index < size(set)
+     * @return the cell at that position
+     */
+    int get(byte set, int index) {
+        return members[set][index];
+    }
+
+    /**
+     * Copies the members of one set, or of two sets merged, into an array in row-major order
+     * @param first VACANT, UNHAPPY_RED or UNHAPPY_BLUE
+     * @param second another set to merge in, or the same set again to copy only first
+     * @param into the array to copy into, from position 0
+     * @return the number of cells copied
+     */
+    int copyInOrder(byte first, byte second, int[] into) {
+        long[] firstBits = bits[first];
+        long[] secondBits = bits[second];
+        int count = 0;
+        for (int word = 0; word < firstBits.length; word++) {
+            long members = firstBits[word] | secondBits[word];
+            while (members != 0) {
+                into[count++] = (word << 6) + Long.numberOfTrailingZeros(members);
+                members &= members - 1;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,59 @@
+package erehwon;
+
+import java.awt.Color;
+
+/**
+ * The states a cell of Erehwon can be in. RedBlueGrid stores one of these
+ * bytes per cell in a flat row-major array instead of a Color reference.
+ *
+ * The byte values are also the indices of the matching colours in COLORS, so converting
+ * between a cell and its colour is a single array read.
+ */
+final class CellState {
+    static final byte VACANT = 0;
+    static final byte RED = 1;
+    static final byte BLUE = 2;
+
+    //returned by fromColor for any colour that is not WHITE, RED or BLUE
+    static final byte INVALID = -1;
+
+    private static final Color[] COLORS = {Color.WHITE, Color.RED, Color.BLUE};
+
+    private CellState() {
+    }
+
+    /**
+     * Converts a cell state into the colour used by the UI
+     * @param state one of VACANT, RED or BLUE
+     * @return WHITE, RED or BLUE respectively
+     */
+    static Color toColor(byte state) {
+        return COLORS[state];
+    }
+
+    /**
+     * Converts a colour into a cell state. Colours are compared by reference,
+     * as they always have been in RedBlueGrid.
+     * @param color the colour to convert
+     * @return VACANT, RED or BLUE for WHITE, RED or BLUE, and INVALID for anything else
+     */
+    static byte fromColor(Color color) {
+        if (color == COLORS[RED]) {
+            return RED;
+        } else if (color == COLORS[BLUE]) {
+            return BLUE;
+        } else if (color == COLORS[VACANT]) {
+            return VACANT;
+        }
+        return INVALID;
+    }
+
+    /**
+     * Rotates through the states in the order VACANT -> RED -> BLUE -> VACANT -> ...
+     * @param state one of VACANT, RED or BLUE
+     * @return the state that follows it
+     */
+    static byte next(byte state) {
+        return (byte) ((state + 1) % COLORS.length);
+    }
+}
@@ -0,0 +1,160 @@
+package erehwon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The cells of a TiledGrid, a CellState byte each, kept outside the Java heap in square tiles of
+ * tileSize by tileSize cells. Each tile is a direct ByteBuffer of its own, or a memory-mapped region of a file,
+ * so no single array ever has to hold the whole grid. Tiles on the right and bottom edges are allocated
+ * at full size and their cells past the edge of the grid are never used.
+ *
+ * A file holds the tiles one after the other in row-major order of the tiles, and within a tile the cells
+ * in row-major order. Cells are read and written a run of a row at a time.
+ */
+final class CellTiles {
+    private final int tileSize;
+    private final int tilesPerSide;
+    private final ByteBuffer[] tiles;
+    private final boolean mapped;
+
+    private CellTiles(int size, int tileSize, ByteBuffer[] tiles, boolean mapped) {
+        this.tileSize = tileSize;
+        this.tilesPerSide = tilesPerSide(size, tileSize);
+        this.tiles = tiles;
+        this.mapped = mapped;
+    }
+
+    private static int tilesPerSide(int size, int tileSize) {
+        return (size + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * @return the number of bytes a file of tiles for the given grid takes
+     */
+    static long fileBytes(int size, int tileSize) {
+        long tiles = (long) tilesPerSide(size, tileSize) * tilesPerSide(size, tileSize);
+        return tiles * tileSize * tileSize;
+    }
+
+    /**
+     * Allocates vacant tiles in direct memory, which counts against -XX:MaxDirectMemorySize
+     * @param size the length of one side of the grid, >= 1
+     * @param tileSize the length of one side of a tile, >= 1, tileSize * tileSize <= Integer.MAX_VALUE
+     */
+    static CellTiles direct(int size, int tileSize) {
+        ByteBuffer[] tiles = new ByteBuffer[tilesPerSide(size, tileSize) * tilesPerSide(size, tileSize)];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = ByteBuffer.allocateDirect(tileSize * tileSize);
+        }
+        return new CellTiles(size, tileSize, tiles, false);
+    }
+
+    /**
+     * Maps the tiles of a file, growing it to fileBytes if it is shorter. New cells are vacant.
+     * The mappings stay valid after the file is closed, so no file handle is kept open.
+     * @param file the file, created if it does not exist
+     * @param size the length of one side of the grid, >= 1
+     * @param tileSize the length of one side of a tile, >= 1, tileSize * tileSize <= Integer.MAX_VALUE
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    static CellTiles mapped(Path file, int size, int tileSize) throws IOException {
+        ByteBuffer[] tiles = new ByteBuffer[tilesPerSide(size, tileSize) * tilesPerSide(size, tileSize)];
+        long tileBytes = (long) tileSize * tileSize;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            for (int i = 0; i < tiles.length; i++) {
+                //mapping past the end of the file grows it with zeros, that is vacant cells
+                tiles[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * tileBytes, tileBytes);
+            }
+        }
+        return new CellTiles(size, tileSize, tiles, true);
+    }
+
+    /**
+     * Checks that every byte of every tile, including the unused cells past the edge of the grid, is
+     * CellState.VACANT, RED or BLUE, reading the tiles a block at a time
+     * @return the number of the first tile with another byte in it, or -1 if there is none
+     */
+    int firstInvalidTile() {
+        byte[] block = new byte[Math.min(tileSize * tileSize, 1 << 16)];
+        for (int i = 0; i < tiles.length; i++) {
+            ByteBuffer tile = tiles[i];
+            for (int offset = 0; offset < tile.capacity(); offset += block.length) {
+                int length = Math.min(block.length, tile.capacity() - offset);
+                tile.get(offset, block, 0, length);
+                for (int j = 0; j < length; j++) {
+                    if (block[j] < CellState.VACANT || block[j] > CellState.BLUE) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    int tileSize() {
+        return tileSize;
+    }
+
+    boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Copies length cells of a row, starting at column col, into dst
+     */
+    void read(int row, int col, byte[] dst, int offset, int length) {
+        int tileRow = row / tileSize;
+        int base = (row % tileSize) * tileSize;
+        while (length > 0) {
+            int within = col % tileSize;
+            int run = Math.min(length, tileSize - within);
+            tiles[tileRow * tilesPerSide + col / tileSize].get(base + within, dst, offset, run);
+            col += run;
+            offset += run;
+            length -= run;
+        }
+    }
+
+    /**
+     * Copies length cells from src into a row, starting at column col
+     */
+    void write(int row, int col, byte[] src, int offset, int length) {
+        int tileRow = row / tileSize;
+        int base = (row % tileSize) * tileSize;
+        while (length > 0) {
+            int within = col % tileSize;
+            int run = Math.min(length, tileSize - within);
+            tiles[tileRow * tilesPerSide + col / tileSize].put(base + within, src, offset, run);
+            col += run;
+            offset += run;
+            length -= run;
+        }
+    }
+
+    byte get(int row, int col) {
+        return tiles[(row / tileSize) * tilesPerSide + col / tileSize]
+                .get((row % tileSize) * tileSize + col % tileSize);
+    }
+
+    void set(int row, int col, byte state) {
+        tiles[(row / tileSize) * tilesPerSide + col / tileSize]
+                .put((row % tileSize) * tileSize + col % tileSize, state);
+    }
+
+    /**
+     * Writes the cells of mapped tiles through to the file; does nothing for direct tiles
+     */
+    void force() {
+        if (mapped) {
+            for (ByteBuffer tile : tiles) {
+                ((MappedByteBuffer) tile).force();
+            }
+        }
+    }
+}
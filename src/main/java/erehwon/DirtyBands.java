@@ -0,0 +1,108 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * Splits the rows of a RedBlueGrid into bands and remembers which bands may hold a resident
+ * whose happiness changed since the band was last classified.
+ *
+ * A resident's happiness only depends on the cells within neighborhoodDistance of it, so a change
+ * to a cell marks every band that has a row within neighborhoodDistance of the cell's row.
+ * Bands span whole rows so that walking the bands in order visits the cells in row-major order,
+ * and each band starts on a multiple of 64 cells so that bit sets over the cells can give every
+ * band its own words.
+ */
+final class DirtyBands {
+    //aim for bands of about this many cells: big enough that marking stays cheap, small enough to skip most of the grid
+    private static final int TARGET_BAND_CELLS = 4096;
+
+    private final int size;
+    private final int neighborhoodDistance;
+    private final int bandRows;
+    private final boolean[] dirty;
+
+    /**
+     * Creates the bands for a grid, all of them dirty
+     * @param size the length of one side of the grid, size >= 1
+     * @param neighborhoodDistance the neighbourhood distance of the grid, >= 1
+     */
+    DirtyBands(int size, int neighborhoodDistance) {
+        this.size = size;
+        this.neighborhoodDistance = neighborhoodDistance;
+
+        //the fewest rows whose cells fill a whole number of 64-bit words
+        int alignedRows = 64 / gcd(size, 64);
+        int wantedRows = Math.max(1, (TARGET_BAND_CELLS + size - 1) / size);
+        this.bandRows = (wantedRows + alignedRows - 1) / alignedRows * alignedRows;
+
+        this.dirty = new boolean[(size + bandRows - 1) / bandRows];
+        markAll();
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * @return the number of bands
+     */
+    int bands() {
+        return dirty.length;
+    }
+
+    /**
+     * @param band a band, 0 <= band < bands()
+     * @return the first row of the band, inclusive
+     */
+    int rowStart(int band) {
+        return band * bandRows;
+    }
+
+    /**
+     * @param band a band, 0 <= band < bands()
+     * @return the last row of the band, exclusive
+     */
+    int rowEnd(int band) {
+        return Math.min(size, (band + 1) * bandRows);
+    }
+
+    /**
+     * Marks every band whose residents could be affected by a change to a cell in the given row
+     * @param row the row of the changed cell, 0 <= row < size
+     */
+    void markAround(int row) {
+        int first = Math.max(row - neighborhoodDistance, 0) / bandRows;
+        int last = Math.min(row + neighborhoodDistance, size - 1) / bandRows;
+        for (int band = first; band <= last; band++) {
+            dirty[band] = true;
+        }
+    }
+
+    /**
+     * Marks every band, after the whole grid changed
+     */
+    void markAll() {
+        Arrays.fill(dirty, true);
+    }
+
+    /**
+     * Writes the dirty bands into the given array in increasing order and marks them clean.
+     * @param into an array with room for bands() entries
+     * @return the number of dirty bands written
+     */
+    int takeDirty(int[] into) {
+        int count = 0;
+        for (int band = 0; band < dirty.length; band++) {
+            if (dirty[band]) {
+                into[count++] = band;
+                dirty[band] = false;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,283 @@
+package erehwon;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Draws a RedBlueGrid as one image, with a pixel per cell scaled up to fill the component.
+ *
+ * The image is indexed: its colour model maps CellState.VACANT, RED and BLUE to white, red and blue, so its
+ * pixels are the cell bytes themselves and refresh copies the whole grid into it with one array copy. This
+ * stays fast for grids of thousands of cells on a side, where a component per cell does not.
+ *
+ * The canvas listens to its grid for changed cells. Only the pixels of changed cells are copied, and the
+ * tiles of TILE by TILE cells they fall in are marked dirty. All the changes that arrive before the event
+ * dispatch thread gets round to the canvas are painted together, one span of dirty tiles at a time, so the
+ * cost of keeping up with a simulation follows the number of moves rather than the size of the grid.
+ * The grid must only be changed on the event dispatch thread while the canvas listens to it.
+ *
+ * While a SimulationWorker runs the grid on its own thread, the canvas stops following the grid
+ * (setFollowing(false)) and shows the worker's frames instead (showFrame).
+ *
+ * Clicking a cell shifts its colour, as RedBlueGrid.shiftColor does.
+ */
+public class GridCanvas extends JComponent implements CellChangeListener {
+    //the size of the component before it is laid out, enough for small grids to be clickable
+    private static final int PREFERRED_SIZE = 480;
+    //the length of a side of a dirty tile, in cells
+    private static final int TILE = 16;
+
+    private RedBlueGrid grid;
+    private BufferedImage image;
+    //the pixels of image, one CellState byte per cell, row-major like the grid's cells
+    private byte[] pixels;
+    //one bit per tile of the grid, set if the tile has changed since it was last painted
+    private long[] dirtyTiles;
+    private int tilesPerSide;
+    private boolean flushQueued;
+    //whether the canvas listens to the grid, rather than waiting for frames
+    private boolean following = true;
+
+    /**
+     * @param grid the grid to draw, cannot be null
+     */
+    public GridCanvas(RedBlueGrid grid) {
+        setGrid(grid);
+        setOpaque(true);
+        setPreferredSize(new Dimension(PREFERRED_SIZE, PREFERRED_SIZE));
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = cellAt(e.getX(), e.getY());
+                //the grid belongs to a simulation worker while the canvas is not following it
+                if (index >= 0 && following) {
+                    int size = GridCanvas.this.grid.getSize();
+                    //the grid tells the canvas about the change
+                    GridCanvas.this.grid.shiftColor(index / size, index % size);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts drawing another grid, possibly of another size, and listening to it instead of the last one
+     * @param grid the grid to draw, cannot be null
+     */
+    public void setGrid(RedBlueGrid grid) {
+        if (grid == null) {
+            throw new IllegalArgumentException("The grid cannot be null.");
+        }
+        if (this.grid != null) {
+            this.grid.setCellChangeListener(null);
+        }
+        this.grid = grid;
+        if (following) {
+            grid.setCellChangeListener(this);
+        }
+        int size = grid.getSize();
+        if (image == null || image.getWidth() != size) {
+            byte[] red = {(byte) 255, (byte) 255, 0};
+            byte[] green = {(byte) 255, 0, 0};
+            byte[] blue = {(byte) 255, 0, (byte) 255};
+            image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_INDEXED,
+                    new IndexColorModel(2, 3, red, green, blue));
+            pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            tilesPerSide = (size + TILE - 1) / TILE;
+            dirtyTiles = new long[(tilesPerSide * tilesPerSide + 63) / 64];
+        }
+        refresh();
+    }
+
+    /**
+     * Starts or stops following the grid. A canvas that starts following again copies the whole grid.
+     * @param following true to listen to the grid and draw its changes, false to leave the grid alone
+     */
+    public void setFollowing(boolean following) {
+        if (following == this.following) {
+            return;
+        }
+        this.following = following;
+        if (following) {
+            grid.setCellChangeListener(this);
+            refresh();
+        } else {
+            grid.setCellChangeListener(null);
+        }
+    }
+
+    public boolean isFollowing() {
+        return following;
+    }
+
+    /**
+     * Draws a frame of a simulation worker running the grid
+     * @param frame the frame, of the grid's size
+     */
+    public void showFrame(SimulationWorker.Frame frame) {
+        if (frame.getSize() != grid.getSize()) {
+            throw new IllegalArgumentException("The frame is not the size of the grid.");
+        }
+        System.arraycopy(frame.cells(), 0, pixels, 0, pixels.length);
+        Arrays.fill(dirtyTiles, 0L);
+        repaint();
+    }
+
+    /**
+     * @return the grid being drawn
+     */
+    public RedBlueGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Copies every cell of the grid into the image and repaints all of it
+     */
+    public void refresh() {
+        System.arraycopy(grid.cells(), 0, pixels, 0, pixels.length);
+        Arrays.fill(dirtyTiles, 0L);
+        repaint();
+    }
+
+    @Override
+    public void cellsChanged(int[] cells, int count) {
+        byte[] gridCells = grid.cells();
+        int size = grid.getSize();
+        for (int i = 0; i < count; i++) {
+            int index = cells[i];
+            pixels[index] = gridCells[index];
+            int tile = (index / size / TILE) * tilesPerSide + index % size / TILE;
+            dirtyTiles[tile >>> 6] |= 1L << tile;
+        }
+        if (!flushQueued) {
+            flushQueued = true;
+            SwingUtilities.invokeLater(this::paintDirtyTiles);
+        }
+    }
+
+    @Override
+    public void allCellsChanged() {
+        refresh();
+    }
+
+    /**
+     * Paints every run of dirty tiles along a row of tiles and marks them clean. When more than half of the
+     * tiles are dirty the whole grid is repainted instead.
+     */
+    void paintDirtyTiles() {
+        flushQueued = false;
+        int dirty = 0;
+        for (long word : dirtyTiles) {
+            dirty += Long.bitCount(word);
+        }
+        if (dirty == 0) {
+            return;
+        }
+        if (2 * dirty > tilesPerSide * tilesPerSide) {
+            Arrays.fill(dirtyTiles, 0L);
+            repaint();
+            return;
+        }
+        for (int tileRow = 0; tileRow < tilesPerSide; tileRow++) {
+            int tileCol = 0;
+            while (tileCol < tilesPerSide) {
+                if (!takeDirty(tileRow * tilesPerSide + tileCol)) {
+                    tileCol++;
+                    continue;
+                }
+                int first = tileCol++;
+                while (tileCol < tilesPerSide && takeDirty(tileRow * tilesPerSide + tileCol)) {
+                    tileCol++;
+                }
+                Rectangle area = cellArea(tileRow * TILE, first * TILE, TILE, (tileCol - first) * TILE);
+                paintImmediately(area);
+            }
+        }
+    }
+
+    /**
+     * @return whether a tile was dirty, clearing its bit
+     */
+    private boolean takeDirty(int tile) {
+        long bit = 1L << tile;
+        boolean dirty = (dirtyTiles[tile >>> 6] & bit) != 0;
+        dirtyTiles[tile >>> 6] &= ~bit;
+        return dirty;
+    }
+
+    /**
+     * @return the area of the component a block of cells is drawn in, with a pixel to spare for rounding
+     */
+    private Rectangle cellArea(int row, int col, int rows, int cols) {
+        double cellSize = cellSize();
+        int x = (int) Math.floor(col * cellSize);
+        int y = (int) Math.floor(row * cellSize);
+        return new Rectangle(x, y, (int) Math.ceil(cols * cellSize) + 1, (int) Math.ceil(rows * cellSize) + 1);
+    }
+
+    /**
+     * @return whether any cell has changed since it was last painted
+     */
+    boolean hasDirtyTiles() {
+        for (long word : dirtyTiles) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the length of a side of a cell on screen, in pixels, at the current size of the component
+     */
+    private double cellSize() {
+        return Math.min(getWidth(), getHeight()) / (double) grid.getSize();
+    }
+
+    /**
+     * Finds the cell under a point of the component. The grid is drawn as a square in the top left corner.
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return the row-major index of the cell, or -1 if the point is not on the grid
+     */
+    int cellAt(int x, int y) {
+        double cellSize = cellSize();
+        if (x < 0 || y < 0 || cellSize <= 0) {
+            return -1;
+        }
+        int row = (int) (y / cellSize);
+        int col = (int) (x / cellSize);
+        int size = grid.getSize();
+        return row < size && col < size ? row * size + col : -1;
+    }
+
+    /**
+     * @return the colour the image gives a pixel, for tests
+     */
+    Color pixelColor(int row, int col) {
+        return new Color(image.getRGB(col, row));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground() == null ? Color.LIGHT_GRAY : getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        int side = (int) Math.round(cellSize() * grid.getSize());
+        Graphics2D g2 = (Graphics2D) g.create();
+        //every cell stays a sharp square however far it is scaled
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2.drawImage(image, 0, 0, side, side, null);
+        g2.dispose();
+    }
+}
@@ -0,0 +1,255 @@
+package erehwon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Per-phase timers and counters for the steps of one RedBlueGrid, switched on with
+ * RedBlueGrid.setInstrumented. While it is off the grid never calls into it, so it costs
+ * one null check per phase.
+ *
+ * The totals are written by the thread running the grid without any locking. Reading them from
+ * another thread, for example over JMX after register, is safe but may see a step half counted.
+ */
+public final class GridInstrumentation implements GridInstrumentationMBean {
+
+    /**
+     * The parts of a step that are timed separately; see InstrumentationSnapshot
+     */
+    enum Phase {
+        CLASSIFY,
+        GATHER,
+        RANK,
+        MOVE
+    }
+
+    //how many instrumented simulate calls are running in this JVM, and whether the first of them switched
+    //allocation accounting on, so that the last one to end can switch it off again; guarded by
+    //GridInstrumentation.class
+    private static int accountingCount;
+    private static boolean allocationsSwitchedOn;
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private long steps;
+    private long cellsClassified;
+    private long neighbourQueries;
+    private long movesAttempted;
+    private long movesAccepted;
+    private long allocatedBytes;
+    private volatile boolean enabled;
+
+    /**
+     * Looks up the bean that measures allocations of the current thread the first time it is needed,
+     * not when a grid is built
+     */
+    private static final class Allocations {
+        //null if this JVM cannot measure allocations per thread
+        static final com.sun.management.ThreadMXBean BEAN = allocationBean();
+    }
+
+    GridInstrumentation() {
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (bean.isThreadAllocatedMemorySupported()) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Allocation accounting is a setting of the whole JVM, so it is only switched on, if it was off, while an
+     * instrumented simulate runs, and switched back off when the last one ends. It is never tied to the life of
+     * a grid. Steps taken outside simulate count allocations only if accounting is on anyway, as it is by
+     * default on HotSpot.
+     * @param on true as an instrumented simulate starts, false as it ends
+     */
+    static synchronized void accountAllocations(boolean on) {
+        com.sun.management.ThreadMXBean bean = Allocations.BEAN;
+        if (bean == null) {
+            return;
+        }
+        if (on) {
+            if (accountingCount++ == 0 && !bean.isThreadAllocatedMemoryEnabled()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                allocationsSwitchedOn = true;
+            }
+        } else if (--accountingCount == 0 && allocationsSwitchedOn) {
+            bean.setThreadAllocatedMemoryEnabled(false);
+            allocationsSwitchedOn = false;
+        }
+    }
+
+    /**
+     * Adds the time since start to a phase
+     * @param phase the phase that just ended
+     * @param start the System.nanoTime when it began
+     */
+    void phase(Phase phase, long start) {
+        phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+    }
+
+    void cellsClassified(long cells) {
+        cellsClassified += cells;
+    }
+
+    void neighbourQueries(long queries) {
+        neighbourQueries += queries;
+    }
+
+    void moves(long attempted, long accepted) {
+        movesAttempted += attempted;
+        movesAccepted += accepted;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, to hand back to stepDone, or -1 if unknown
+     */
+    long allocationMark() {
+        com.sun.management.ThreadMXBean bean = Allocations.BEAN;
+        return bean == null ? -1 : bean.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Counts a finished step and what the current thread allocated during it
+     * @param mark the allocationMark taken when the step began
+     */
+    void stepDone(long mark) {
+        steps++;
+        long end = allocationMark();
+        //accounting may have been switched off outside this class during the step
+        if (mark >= 0 && end >= 0) {
+            allocatedBytes += end - mark;
+        }
+    }
+
+    /**
+     * @return a copy of every total as it is now
+     */
+    public InstrumentationSnapshot snapshot() {
+        return new InstrumentationSnapshot(steps, phaseNanos[Phase.CLASSIFY.ordinal()],
+                phaseNanos[Phase.GATHER.ordinal()], phaseNanos[Phase.RANK.ordinal()],
+                phaseNanos[Phase.MOVE.ordinal()], cellsClassified, neighbourQueries,
+                movesAttempted, movesAccepted, allocatedBytes);
+    }
+
+    /**
+     * Registers this instrumentation with the platform MBean server so that tools such as JConsole can read it
+     * @param name the value of the name key of the MBean, for example the name of the run; cannot be null
+     * @return the name it was registered under, erehwon:type=RedBlueGrid,name=...
+     * @throws IllegalArgumentException if the name is not valid or is already registered
+     */
+    public ObjectName register(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("The name cannot be null.");
+        }
+        try {
+            ObjectName objectName = ObjectName.getInstance("erehwon:type=RedBlueGrid,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not register the instrumentation as " + name, e);
+        }
+    }
+
+    /**
+     * Removes this instrumentation from the platform MBean server, if it was registered under that name
+     * @param objectName the name register returned
+     */
+    public void unregister(ObjectName objectName) {
+        try {
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not unregister " + objectName, e);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public long getClassifyNanos() {
+        return phaseNanos[Phase.CLASSIFY.ordinal()];
+    }
+
+    @Override
+    public long getGatherNanos() {
+        return phaseNanos[Phase.GATHER.ordinal()];
+    }
+
+    @Override
+    public long getRankNanos() {
+        return phaseNanos[Phase.RANK.ordinal()];
+    }
+
+    @Override
+    public long getMoveNanos() {
+        return phaseNanos[Phase.MOVE.ordinal()];
+    }
+
+    @Override
+    public long getCellsClassified() {
+        return cellsClassified;
+    }
+
+    @Override
+    public long getNeighbourQueries() {
+        return neighbourQueries;
+    }
+
+    @Override
+    public long getMovesAttempted() {
+        return movesAttempted;
+    }
+
+    @Override
+    public long getMovesAccepted() {
+        return movesAccepted;
+    }
+
+    @Override
+    public long getMovesRejected() {
+        return movesAttempted - movesAccepted;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public double getAllocatedBytesPerStep() {
+        return snapshot().getAllocatedBytesPerStep();
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(phaseNanos, 0L);
+        steps = 0;
+        cellsClassified = 0;
+        neighbourQueries = 0;
+        movesAttempted = 0;
+        movesAccepted = 0;
+        allocatedBytes = 0;
+    }
+}
@@ -0,0 +1,42 @@
+package erehwon;
+
+/**
+ * The JMX view of a GridInstrumentation. All times are in nanoseconds and all values are totals
+ * since the instrumentation was created or last reset.
+ */
+public interface GridInstrumentationMBean {
+
+    boolean isEnabled();
+
+    long getSteps();
+
+    long getClassifyNanos();
+
+    long getGatherNanos();
+
+    long getRankNanos();
+
+    long getMoveNanos();
+
+    long getCellsClassified();
+
+    long getNeighbourQueries();
+
+    long getMovesAttempted();
+
+    long getMovesAccepted();
+
+    long getMovesRejected();
+
+    long getAllocatedBytes();
+
+    /**
+     * @return the bytes allocated per step, on average
+     */
+    double getAllocatedBytesPerStep();
+
+    /**
+     * Sets every total back to zero
+     */
+    void reset();
+}
@@ -0,0 +1,244 @@
+package erehwon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Saves a RedBlueGrid to a file and loads it back, so that long runs can be checkpointed and
+ * interesting arrangements shared.
+ *
+ * A snapshot is a 40 byte big-endian header followed by the cells, four to a byte:
+ * <pre>
+ * int    magic, "RBGS"
+ * short  version, 1
+ * short  flags, bit 0 set if the RNG state is present
+ * int    size
+ * int    neighbourhood distance
+ * double happiness threshold
+ * long   RNG state
+ * long   step count
+ * byte[] cells, (size * size + 3) / 4 bytes; cell i is in bits 2 * (i % 4) and up of byte i / 4,
+ *        as its CellState: 0 vacant, 1 red, 2 blue
+ * </pre>
+ * The state of the random number generator can only be saved for grids built or reset with a seed.
+ * A grid loaded from a snapshot without it draws from a new SplittableRandom; one loaded with it takes
+ * exactly the same random steps the saved grid would have taken.
+ *
+ * The cells are written and read through memory-mapped windows of the file, packed and unpacked a block
+ * at a time, so even the largest grids are saved without an object per cell or a second copy of the grid.
+ */
+public final class GridSnapshot {
+    private static final int MAGIC = 0x52424753;
+    private static final short VERSION = 1;
+    private static final short HAS_RNG_STATE = 1;
+    private static final int HEADER_BYTES = 40;
+    //the most bytes of the file mapped at once
+    private static final int WINDOW_BYTES = 64 << 20;
+    //the packed bytes converted in one go between the cells and a window
+    private static final int BLOCK_BYTES = 1 << 16;
+
+    private GridSnapshot() {
+    }
+
+    /**
+     * Everything a snapshot holds, read but not yet turned into a grid, so that TrajectoryReplayer
+     * can move cells around before the grid is built
+     */
+    static final class Contents {
+        final Path file;
+        final int size;
+        final int neighborhoodDistance;
+        final double happinessThreshold;
+        final boolean hasRngState;
+        long rngState;
+        long stepCount;
+        final byte[] cells;
+
+        Contents(Path file, int size, int neighborhoodDistance, double happinessThreshold, boolean hasRngState,
+                 long rngState, long stepCount, byte[] cells) {
+            this.file = file;
+            this.size = size;
+            this.neighborhoodDistance = neighborhoodDistance;
+            this.happinessThreshold = happinessThreshold;
+            this.hasRngState = hasRngState;
+            this.rngState = rngState;
+            this.stepCount = stepCount;
+            this.cells = cells;
+        }
+
+        /**
+         * @return a grid around the cells, which it keeps
+         * @throws IOException if the header describes a grid that cannot exist
+         */
+        RedBlueGrid toGrid() throws IOException {
+            RandomGenerator rng = hasRngState ? new SplitMix64(rngState) : new SplittableRandom();
+            try {
+                return new RedBlueGrid(size, neighborhoodDistance, happinessThreshold, rng, cells, stepCount);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " is not a valid grid: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the grid, replacing the file if it exists
+     * @param grid the grid to save, cannot be null
+     * @param file where to save it, cannot be null
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(RedBlueGrid grid, Path file) throws IOException {
+        if (grid == null || file == null) {
+            throw new IllegalArgumentException("The grid and file cannot be null.");
+        }
+        byte[] cells = grid.cells();
+        long packedBytes = (cells.length + 3L) / 4;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        RandomGenerator rng = grid.rng();
+        header.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort(rng instanceof SplitMix64 ? HAS_RNG_STATE : 0)
+                .putInt(grid.getSize())
+                .putInt(grid.getNeighborhoodDistance())
+                .putDouble(grid.getHappinessThreshold())
+                .putLong(rng instanceof SplitMix64 ? ((SplitMix64) rng).state() : 0)
+                .putLong(grid.getStepCount())
+                .flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            byte[] block = new byte[BLOCK_BYTES];
+            for (long windowStart = 0; windowStart < packedBytes; windowStart += WINDOW_BYTES) {
+                int windowLength = (int) Math.min(WINDOW_BYTES, packedBytes - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_BYTES + windowStart, windowLength);
+                for (int offset = 0; offset < windowLength; offset += BLOCK_BYTES) {
+                    int length = Math.min(BLOCK_BYTES, windowLength - offset);
+                    pack(cells, (windowStart + offset) * 4, block, length);
+                    window.put(block, 0, length);
+                }
+                window.force();
+            }
+        }
+    }
+
+    /**
+     * Reads a grid saved by save
+     * @param file the snapshot, cannot be null
+     * @return a new grid in the saved state
+     * @throws IOException if the file cannot be read, is not a snapshot, or is cut short or corrupt
+     */
+    public static RedBlueGrid load(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The file cannot be null.");
+        }
+        return read(file).toGrid();
+    }
+
+    /**
+     * Reads a snapshot without building the grid
+     * @param file the snapshot
+     * @return what it holds
+     * @throws IOException if the file cannot be read, is not a snapshot, or is cut short or corrupt
+     */
+    static Contents read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(file + " is too short to be a grid snapshot");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a grid snapshot");
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException(file + " has snapshot version " + version + ", only " + VERSION + " is supported");
+            }
+            short flags = header.getShort();
+            int size = header.getInt();
+            int neighborhoodDistance = header.getInt();
+            double happinessThreshold = header.getDouble();
+            long rngState = header.getLong();
+            long stepCount = header.getLong();
+            if (size < 1 || (long) size * size > Integer.MAX_VALUE) {
+                throw new IOException(file + " has an impossible grid size " + size);
+            }
+            //written as a negated range check so that NaN fails it too
+            if (!(happinessThreshold >= 0 && happinessThreshold <= 1)) {
+                throw new IOException(file + " has an impossible happiness threshold " + happinessThreshold);
+            }
+
+            byte[] cells = new byte[size * size];
+            long packedBytes = (cells.length + 3L) / 4;
+            if (channel.size() != HEADER_BYTES + packedBytes) {
+                throw new IOException(file + " should be " + (HEADER_BYTES + packedBytes) + " bytes long, not "
+                        + channel.size());
+            }
+
+            byte[] block = new byte[BLOCK_BYTES];
+            for (long windowStart = 0; windowStart < packedBytes; windowStart += WINDOW_BYTES) {
+                int windowLength = (int) Math.min(WINDOW_BYTES, packedBytes - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + windowStart, windowLength);
+                for (int offset = 0; offset < windowLength; offset += BLOCK_BYTES) {
+                    int length = Math.min(BLOCK_BYTES, windowLength - offset);
+                    window.get(block, 0, length);
+                    if (!unpack(block, length, cells, (windowStart + offset) * 4)) {
+                        throw new IOException(file + " has a cell that is not vacant, red or blue");
+                    }
+                }
+            }
+
+            return new Contents(file, size, neighborhoodDistance, happinessThreshold, (flags & HAS_RNG_STATE) != 0,
+                    rngState, stepCount, cells);
+        }
+    }
+
+    /**
+     * Packs four cells into each of the first length bytes of block, padding past the last cell with vacant cells
+     * @param cells all of the cells
+     * @param first the index of the first cell to pack
+     */
+    private static void pack(byte[] cells, long first, byte[] block, int length) {
+        int cell = (int) first;
+        for (int i = 0; i < length; i++) {
+            int packed = 0;
+            for (int shift = 0; shift < 8 && cell < cells.length; shift += 2) {
+                packed |= cells[cell++] << shift;
+            }
+            block[i] = (byte) packed;
+        }
+    }
+
+    /**
+     * Unpacks the first length bytes of block into the cells from first onwards
+     * @return false if a cell held the unused value 3
+     */
+    private static boolean unpack(byte[] block, int length, byte[] cells, long first) {
+        int cell = (int) first;
+        for (int i = 0; i < length; i++) {
+            int packed = block[i];
+            for (int shift = 0; shift < 8 && cell < cells.length; shift += 2) {
+                int state = (packed >>> shift) & 3;
+                if (state == 3) {
+                    return false;
+                }
+                cells[cell++] = (byte) state;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package erehwon;
+
+/**
+ * The number of happy and unhappy residents of each colour in a RedBlueGrid at one moment.
+ * Produced by RedBlueGrid.census, which classifies again only the bands of rows near recent changes, on the
+ * pool given to setParallelism if there is one, and then reads the unhappy counts off the sets it maintains.
+ * TiledGrid.census counts its grid one block at a time.
+ */
+public final class HappinessCensus {
+    private final long happyRed;
+    private final long unhappyRed;
+    private final long happyBlue;
+    private final long unhappyBlue;
+
+    /**
+     * @param happyRed the number of happy red residents, >= 0
+     * @param unhappyRed the number of unhappy red residents, >= 0
+     * @param happyBlue the number of happy blue residents, >= 0
+     * @param unhappyBlue the number of unhappy blue residents, >= 0
+     */
+    public HappinessCensus(long happyRed, long unhappyRed, long happyBlue, long unhappyBlue) {
+        this.happyRed = happyRed;
+        this.unhappyRed = unhappyRed;
+        this.happyBlue = happyBlue;
+        this.unhappyBlue = unhappyBlue;
+    }
+
+    public long getHappyRed() {
+        return happyRed;
+    }
+
+    public long getUnhappyRed() {
+        return unhappyRed;
+    }
+
+    public long getHappyBlue() {
+        return happyBlue;
+    }
+
+    public long getUnhappyBlue() {
+        return unhappyBlue;
+    }
+
+    /**
+     * @return the number of happy residents of both colours
+     */
+    public long getHappy() {
+        return happyRed + happyBlue;
+    }
+
+    /**
+     * @return the number of unhappy residents of both colours
+     */
+    public long getUnhappy() {
+        return unhappyRed + unhappyBlue;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || obj.getClass() != this.getClass()) { return false; }
+        HappinessCensus census = (HappinessCensus) obj;
+        return census.happyRed == this.happyRed
+                && census.unhappyRed == this.unhappyRed
+                && census.happyBlue == this.happyBlue
+                && census.unhappyBlue == this.unhappyBlue;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(happyRed) * 31 * 31 * 31 + Long.hashCode(unhappyRed) * 31 * 31
+                + Long.hashCode(happyBlue) * 31 + Long.hashCode(unhappyBlue);
+    }
+
+    @Override
+    public String toString() {
+        return "red " + happyRed + " happy / " + unhappyRed + " unhappy, blue "
+                + happyBlue + " happy / " + unhappyBlue + " unhappy";
+    }
+}
@@ -0,0 +1,39 @@
+package erehwon;
+
+/**
+ * Counts red and blue residents in the neighbourhood window of a cell for RedBlueGrid.
+ *
+ * An engine reads the grid's cell array directly. RedBlueGrid tells it when the whole grid
+ * was recoloured (rebuild), when a single cell changed (cellChanged), and when it is about
+ * to visit every cell (prepare), so each engine can decide when to do its bookkeeping.
+ */
+interface HappinessEngine {
+
+    /**
+     * Recomputes everything from the cells, after the whole grid has been recoloured
+     */
+    void rebuild();
+
+    /**
+     * Records that a single cell changed state
+     * @param index the row-major index of the cell that changed
+     * @param from the state the cell had before the change
+     * @param to the state the cell has now
+     */
+    void cellChanged(int index, byte from, byte to);
+
+    /**
+     * Called before a pass that queries every cell of the grid, such as fractionHappy
+     */
+    void prepare();
+
+    /**
+     * The number of cells in the given state in the window around a cell, including the cell itself.
+     * The window holds every cell within neighborhoodDistance of (row, col), clipped to the grid.
+     * @param row the row of the cell, 0 <= row < size
+     * @param col the column of the cell, 0 <= col < size
+     * @param state CellState.RED or CellState.BLUE
+     * @return the count, or 0 for any other state
+     */
+    int windowCount(int row, int col, byte state);
+}
@@ -0,0 +1,20 @@
+package erehwon;
+
+/**
+ * The ways RedBlueGrid can count the neighbours of a cell. Both give exactly the same
+ * happiness values; they differ in what a query and a move cost.
+ */
+public enum HappinessMode {
+    /**
+     * Keeps a red and a blue count for every cell and updates the window around each
+     * moved cell. Queries are O(1) and each move costs O(d^2). Best for small neighbourhoods.
+     */
+    INCREMENTAL,
+
+    /**
+     * Builds 2D prefix sums of red and blue residents once before each full pass over the grid,
+     * so that any window is an O(1) rectangle query. Moves cost O(1), but cells queried between
+     * a move and the next full pass are counted directly in O(d^2). Best for large neighbourhoods.
+     */
+    SUMMED_AREA
+}
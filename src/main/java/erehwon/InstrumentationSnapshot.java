@@ -0,0 +1,115 @@
+package erehwon;
+
+/**
+ * The totals of a GridInstrumentation at one moment. Times are in nanoseconds.
+ *
+ * A step is one call to directedSteps or oneTimeStep. The phases are:
+ * classify, working out which residents are unhappy near the cells that changed;
+ * gather, collecting the vacancies and movers and scoring every vacancy;
+ * rank, sorting the vacancies; and move, matching movers to vacancies and moving them.
+ */
+public final class InstrumentationSnapshot {
+    private final long steps;
+    private final long classifyNanos;
+    private final long gatherNanos;
+    private final long rankNanos;
+    private final long moveNanos;
+    private final long cellsClassified;
+    private final long neighbourQueries;
+    private final long movesAttempted;
+    private final long movesAccepted;
+    private final long allocatedBytes;
+
+    InstrumentationSnapshot(long steps, long classifyNanos, long gatherNanos, long rankNanos, long moveNanos,
+                            long cellsClassified, long neighbourQueries, long movesAttempted, long movesAccepted,
+                            long allocatedBytes) {
+        this.steps = steps;
+        this.classifyNanos = classifyNanos;
+        this.gatherNanos = gatherNanos;
+        this.rankNanos = rankNanos;
+        this.moveNanos = moveNanos;
+        this.cellsClassified = cellsClassified;
+        this.neighbourQueries = neighbourQueries;
+        this.movesAttempted = movesAttempted;
+        this.movesAccepted = movesAccepted;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getClassifyNanos() {
+        return classifyNanos;
+    }
+
+    public long getGatherNanos() {
+        return gatherNanos;
+    }
+
+    public long getRankNanos() {
+        return rankNanos;
+    }
+
+    public long getMoveNanos() {
+        return moveNanos;
+    }
+
+    /**
+     * @return the number of cells whose resident was classified as happy or unhappy again
+     */
+    public long getCellsClassified() {
+        return cellsClassified;
+    }
+
+    /**
+     * @return the number of times the same-colour neighbours of a cell were looked up outside of
+     * classification, for scoring vacancies and deciding moves
+     */
+    public long getNeighbourQueries() {
+        return neighbourQueries;
+    }
+
+    public long getMovesAttempted() {
+        return movesAttempted;
+    }
+
+    public long getMovesAccepted() {
+        return movesAccepted;
+    }
+
+    public long getMovesRejected() {
+        return movesAttempted - movesAccepted;
+    }
+
+    /**
+     * @return the bytes allocated by the thread running the steps, or 0 if the JVM cannot measure it.
+     * Work done on a pool from setParallelism is not included.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the total time of all four phases
+     */
+    public long getTotalNanos() {
+        return classifyNanos + gatherNanos + rankNanos + moveNanos;
+    }
+
+    /**
+     * @return the bytes allocated per step, on average, or 0 before the first step
+     */
+    public double getAllocatedBytesPerStep() {
+        return steps == 0 ? 0 : (double) allocatedBytes / steps;
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentationSnapshot{steps=" + steps + ", classifyNanos=" + classifyNanos
+                + ", gatherNanos=" + gatherNanos + ", rankNanos=" + rankNanos + ", moveNanos=" + moveNanos
+                + ", cellsClassified=" + cellsClassified + ", neighbourQueries=" + neighbourQueries
+                + ", movesAttempted=" + movesAttempted + ", movesAccepted=" + movesAccepted
+                + ", allocatedBytes=" + allocatedBytes + "}";
+    }
+}
@@ -0,0 +1,210 @@
+package erehwon;
+
+import javax.swing.JComponent;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+
+/**
+ * Plots the last steps of the simulations it listens to: the fraction of happy red and blue residents,
+ * the number of residents that moved, and how long each step took. Flat happiness curves show a stall,
+ * jumps in the step time a performance cliff.
+ *
+ * The panel is a SimulationListener, fed the StepStats simulate already computes, so plotting costs the
+ * simulation no extra pass over the grid. onStep may be called on any thread: it writes into ring buffers of
+ * the last capacity steps under the panel's lock and asks for a repaint, which Swing coalesces, so however
+ * fast the steps come the panel is drawn at most once per repaint. Painting only holds the lock to copy the
+ * buffers out, and draws from the copy, so a slow redraw never holds up the thread running the steps.
+ */
+public class MetricsPanel extends JComponent implements SimulationListener {
+    private static final int PREFERRED_WIDTH = 220;
+    private static final int PREFERRED_HEIGHT = 480;
+    //the space around the plots and above each of them for its title, in pixels
+    private static final int MARGIN = 6;
+    private static final int TITLE_HEIGHT = 14;
+    private static final Color RED_LINE = new Color(200, 30, 30);
+    private static final Color BLUE_LINE = new Color(30, 60, 200);
+    private static final Color GREY_LINE = new Color(60, 60, 60);
+    private static final BasicStroke LINE = new BasicStroke(1.2f);
+
+    private final int capacity;
+    //ring buffers of the last count steps; the oldest is at start
+    private final double[] happyRed;
+    private final double[] happyBlue;
+    private final double[] moves;
+    private final double[] stepMillis;
+    private int start;
+    private int count;
+    //the series copied out of the ring buffers for drawing, oldest first, and the points of a line;
+    //used on the event dispatch thread only
+    private final double[] drawnRed;
+    private final double[] drawnBlue;
+    private final double[] drawnMoves;
+    private final double[] drawnMillis;
+    private int drawnCount;
+    private final int[] xPoints;
+    private final int[] yPoints;
+
+    /**
+     * @param capacity the number of steps plotted, >= 2; older steps drop off the left
+     */
+    public MetricsPanel(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("The capacity must be at least 2.");
+        }
+        this.capacity = capacity;
+        this.happyRed = new double[capacity];
+        this.happyBlue = new double[capacity];
+        this.moves = new double[capacity];
+        this.stepMillis = new double[capacity];
+        this.drawnRed = new double[capacity];
+        this.drawnBlue = new double[capacity];
+        this.drawnMoves = new double[capacity];
+        this.drawnMillis = new double[capacity];
+        this.xPoints = new int[capacity];
+        this.yPoints = new int[capacity];
+        setPreferredSize(new Dimension(PREFERRED_WIDTH, PREFERRED_HEIGHT));
+        setOpaque(true);
+    }
+
+    @Override
+    public void onStep(StepStats stats) {
+        synchronized (this) {
+            int slot = (start + count) % capacity;
+            if (count == capacity) {
+                start = (start + 1) % capacity;
+            } else {
+                count++;
+            }
+            happyRed[slot] = stats.getFractionHappyRed();
+            happyBlue[slot] = stats.getFractionHappyBlue();
+            moves[slot] = stats.getMoves();
+            stepMillis[slot] = stats.getElapsedNanos() / 1e6;
+        }
+        repaint();
+    }
+
+    /**
+     * Forgets every step, as when a new grid is shown
+     */
+    public void clear() {
+        synchronized (this) {
+            start = 0;
+            count = 0;
+        }
+        repaint();
+    }
+
+    /**
+     * @return the number of steps being plotted
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the fraction of happy red and blue residents, the moves and the step time in milliseconds of one
+     *         of the steps plotted, 0 being the oldest; for tests
+     */
+    synchronized double[] valuesAt(int step) {
+        int slot = (start + step) % capacity;
+        return new double[] {happyRed[slot], happyBlue[slot], moves[slot], stepMillis[slot]};
+    }
+
+    /**
+     * Copies the steps plotted into the drawn series, oldest first
+     */
+    private synchronized void copySteps() {
+        drawnCount = count;
+        int first = Math.min(count, capacity - start);
+        copySeries(happyRed, drawnRed, first);
+        copySeries(happyBlue, drawnBlue, first);
+        copySeries(moves, drawnMoves, first);
+        copySeries(stepMillis, drawnMillis, first);
+    }
+
+    /**
+     * Unrolls a ring buffer: first values from start to the end of the array, then the rest from its beginning
+     */
+    private void copySeries(double[] ring, double[] into, int first) {
+        System.arraycopy(ring, start, into, 0, first);
+        System.arraycopy(ring, 0, into, first, count - first);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        copySteps();
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setColor(Color.WHITE);
+        g2.fillRect(0, 0, getWidth(), getHeight());
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setFont(g2.getFont().deriveFont(Font.PLAIN, 11f));
+
+        int plotHeight = (getHeight() - 4 * MARGIN) / 3;
+        int width = getWidth() - 2 * MARGIN;
+        int top = MARGIN;
+        boolean empty = drawnCount == 0;
+        String happy = empty ? "" : String.format(" %.2f / %.2f", last(drawnRed), last(drawnBlue));
+        plotFrame(g2, "fraction happy" + happy, top, width, plotHeight);
+        plot(g2, drawnRed, 1.0, RED_LINE, top, width, plotHeight);
+        plot(g2, drawnBlue, 1.0, BLUE_LINE, top, width, plotHeight);
+
+        top += plotHeight + MARGIN;
+        double maxMoves = max(drawnMoves);
+        plotFrame(g2, "moves per step" + (empty ? "" : String.format(" %.0f (max %.0f)", last(drawnMoves), maxMoves)),
+                top, width, plotHeight);
+        plot(g2, drawnMoves, maxMoves, GREY_LINE, top, width, plotHeight);
+
+        top += plotHeight + MARGIN;
+        double maxMillis = max(drawnMillis);
+        plotFrame(g2, "step time, ms" + (empty ? "" : String.format(" %.2f (max %.2f)", last(drawnMillis),
+                maxMillis)), top, width, plotHeight);
+        plot(g2, drawnMillis, maxMillis, GREY_LINE, top, width, plotHeight);
+        g2.dispose();
+    }
+
+    /**
+     * Draws the title and the box of one plot
+     */
+    private void plotFrame(Graphics2D g2, String title, int top, int width, int height) {
+        g2.setColor(Color.BLACK);
+        g2.drawString(title, MARGIN, top + TITLE_HEIGHT - 3);
+        g2.setColor(Color.LIGHT_GRAY);
+        g2.drawRect(MARGIN, top + TITLE_HEIGHT, width, height - TITLE_HEIGHT);
+    }
+
+    /**
+     * Draws one drawn series as a line from the oldest step on the left to the newest on the right
+     * @param max the value drawn at the top of the plot; values are drawn from 0 up to it
+     */
+    private void plot(Graphics2D g2, double[] series, double max, Color colour, int top, int width, int height) {
+        if (drawnCount < 2 || max <= 0) {
+            return;
+        }
+        int bottom = top + height;
+        int plotHeight = height - TITLE_HEIGHT;
+        for (int i = 0; i < drawnCount; i++) {
+            xPoints[i] = MARGIN + (int) Math.round((double) i * width / (capacity - 1));
+            yPoints[i] = bottom - (int) Math.round(Math.min(series[i] / max, 1.0) * plotHeight);
+        }
+        g2.setColor(colour);
+        g2.setStroke(LINE);
+        g2.drawPolyline(xPoints, yPoints, drawnCount);
+    }
+
+    private double last(double[] series) {
+        return series[drawnCount - 1];
+    }
+
+    private double max(double[] series) {
+        double max = 0;
+        for (int i = 0; i < drawnCount; i++) {
+            max = Math.max(max, series[i]);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,149 @@
+package erehwon;
+
+/**
+ * A HappinessEngine holding, for every cell of a RedBlueGrid, how many red and how many blue
+ * residents live in the window of cells within neighborhoodDistance of it.
+ *
+ * The window is clipped to the grid and includes the cell itself; RedBlueGrid removes
+ * the cell's own contribution when it asks for its neighbours. The table is built once
+ * per reset and then kept current by cellChanged, which only touches the window around
+ * the changed cell.
+ */
+final class NeighbourCounts implements HappinessEngine {
+    private final int size;
+    private final int neighborhoodDistance;
+    //the grid's cells, shared with RedBlueGrid and never written here
+    private final byte[] cells;
+    private final int[] red;
+    private final int[] blue;
+
+    /**
+     * Creates an empty table for the given grid. Call rebuild before using it.
+     * @param size the length of one side of the grid, size >= 1
+     * @param neighborhoodDistance the neighbourhood distance of the grid, >= 1
+     * @param cells the row-major cell array of the grid, of length size * size
+     */
+    NeighbourCounts(int size, int neighborhoodDistance, byte[] cells) {
+        this.size = size;
+        this.neighborhoodDistance = neighborhoodDistance;
+        this.cells = cells;
+        this.red = new int[size * size];
+        this.blue = new int[size * size];
+    }
+
+    /**
+     * Recomputes every count from the cells. The window sums are separable, so this is
+     * a sliding sum along each row followed by one down each column, O(size^2) for any
+     * neighbourhood distance.
+     */
+    @Override
+    public void rebuild() {
+        windowSums(CellState.RED, red);
+        windowSums(CellState.BLUE, blue);
+    }
+
+    /**
+     * Fills counts with the number of cells in the given state in the window around each cell
+     * @param state the state to count, CellState.RED or CellState.BLUE
+     * @param counts the table to fill, of length size * size
+     */
+    private void windowSums(byte state, int[] counts) {
+        //along each row
+        for (int row = 0; row < size; row++) {
+            int base = row * size;
+            int sum = 0;
+            for (int col = 0; col <= Math.min(neighborhoodDistance, size - 1); col++) {
+                if (cells[base + col] == state) {
+                    sum++;
+                }
+            }
+            for (int col = 0; col < size; col++) {
+                counts[base + col] = sum;
+                int enter = col + neighborhoodDistance + 1;
+                if (enter < size && cells[base + enter] == state) {
+                    sum++;
+                }
+                int leave = col - neighborhoodDistance;
+                if (leave >= 0 && cells[base + leave] == state) {
+                    sum--;
+                }
+            }
+        }
+
+        //then down each column, over the row sums
+        int[] column = new int[size];
+        for (int col = 0; col < size; col++) {
+            for (int row = 0; row < size; row++) {
+                column[row] = counts[row * size + col];
+            }
+            int sum = 0;
+            for (int row = 0; row <= Math.min(neighborhoodDistance, size - 1); row++) {
+                sum += column[row];
+            }
+            for (int row = 0; row < size; row++) {
+                counts[row * size + col] = sum;
+                int enter = row + neighborhoodDistance + 1;
+                if (enter < size) {
+                    sum += column[enter];
+                }
+                int leave = row - neighborhoodDistance;
+                if (leave >= 0) {
+                    sum -= column[leave];
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the counts of every cell whose window contains the changed cell
+     */
+    @Override
+    public void cellChanged(int index, byte from, byte to) {
+        int[] decrement = table(from);
+        int[] increment = table(to);
+        if (decrement == increment) {
+            return;
+        }
+
+        int row = index / size;
+        int col = index % size;
+        int rowStart = Math.max(row - neighborhoodDistance, 0);
+        int rowEnd = Math.min(row + neighborhoodDistance, size - 1);
+        int colStart = Math.max(col - neighborhoodDistance, 0);
+        int colEnd = Math.min(col + neighborhoodDistance, size - 1);
+
+        for (int rowNum = rowStart; rowNum <= rowEnd; rowNum++) {
+            int base = rowNum * size;
+            for (int i = base + colStart; i <= base + colEnd; i++) {
+                if (decrement != null) {
+                    decrement[i]--;
+                }
+                if (increment != null) {
+                    increment[i]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The counts are always current, so there is nothing to do before a full pass
+     */
+    @Override
+    public void prepare() {
+    }
+
+    @Override
+    public int windowCount(int row, int col, byte state) {
+        int[] counts = table(state);
+        return counts == null ? 0 : counts[row * size + col];
+    }
+
+    private int[] table(byte state) {
+        if (state == CellState.RED) {
+            return red;
+        } else if (state == CellState.BLUE) {
+            return blue;
+        }
+        return null;
+    }
+}
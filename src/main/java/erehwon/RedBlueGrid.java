@@ -1,20 +1,79 @@
 package erehwon;
 
 import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
-import java.util.Random;
 import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.random.RandomGenerator;
 
 
 public class RedBlueGrid {
     private static final Color[] COLORS = {Color.WHITE, Color.RED, Color.BLUE};
-    private Color[][] grid;
+    //simulate gives up after this many steps in a row without fewer unhappy residents
+    private static final int DEFAULT_PATIENCE = 10;
+    //simulate stops shaking the grid with random steps once only this many steps are left
+    private static final int DEFAULT_SHAKE_RESERVE = 15;
+    //the number of moves a parallel oneTimeStep applies in one task before it stops splitting
+    private static final int MOVES_PER_TASK = 4096;
+    //orders vacancies by the happiness a mover would have there, happiest first
+    private static final Comparator<EmptyHappinessCoordinate> HAPPIEST_FIRST =
+            Comparator.comparingDouble(EmptyHappinessCoordinate::getEmptyHappinessCoordinate).reversed();
+    //one CellState per cell, stored row-major: the cell (row, col) is cells[row * size + col]
+    private byte[] cells;
+    //counts the red and blue residents around a cell, told about every change by setCell
+    private HappinessEngine counts;
     private int size;
     private int neighborhoodDistance;
     private int numVacant;
     private int numRed;
     private int numBlue;
     private double happinessThreshold;
+    //the only source of randomness, shared by reset and oneTimeStep
+    private RandomGenerator rng;
+    //scratch space for oneTimeStep: row-major indices of the vacant cells and of the unhappy residents
+    //and how many entries of each were filled by the last fillCoordinates
+    private int[] vacantBuffer;
+    private int[] moverBuffer;
+    private int bufferedVacant;
+    private int bufferedMovers;
+    //the pool that full-grid passes are split over, or null to run them on the calling thread
+    private ForkJoinPool pool;
+    //which bands of rows need their residents classified again since a cell near them changed
+    private DirtyBands dirtyBands;
+    //one bit per cell, set for the residents that were unhappy when their band was last classified,
+    //and the bits that the last classification of each band changed
+    private long[] unhappyBits;
+    private long[] flippedBits;
+    //the vacant cells, unhappy reds and unhappy blues; a resident is in an unhappy set exactly when its bit is set
+    private CellSets sets;
+    //the number of red and blue residents on the grid right now
+    private int liveRed;
+    private int liveBlue;
+    //scratch space for refresh: the bands being classified again
+    private int[] refreshBands;
+    //when simulate stops waiting for progress and stops shaking the grid; see setStallPolicy
+    private int patience = DEFAULT_PATIENCE;
+    private int shakeReserve = DEFAULT_SHAKE_RESERVE;
+    //told about every step of simulate
+    private SimulationListener listener = SimulationListener.NO_OP;
+    //the timers and counters of this grid, or null until they are first asked for, and the same object while they
+    //are switched on or null while they are off
+    private GridInstrumentation instrumentation;
+    private GridInstrumentation instruments;
+    //the number of oneTimeStep and directedSteps calls since the last reset
+    private long stepCount;
+    //writes down every move and every cell set, or null
+    private TrajectoryRecorder recorder;
+    //told which cells changed, or null; the cells changed by the step in progress are changed[0..changedCount)
+    private CellChangeListener changeListener;
+    private int[] changed = new int[64];
+    private int changedCount;
 
     /**
      * Constructor for the function, generates a random grid filled with
@@ -32,6 +91,44 @@ public class RedBlueGrid {
                        double fractionVacant,
                        double fractionRed,
                        double happinessThreshold) {
+        this(size, neighborhoodDistance, fractionVacant, fractionRed, happinessThreshold, new SplittableRandom());
+    }
+
+    /**
+     * Constructs a grid whose initial arrangement and random moves are determined by a seed.
+     * Two grids built with the same arguments and seed go through exactly the same states.
+     *
+     * @param seed the seed of the random number generator, any long.
+     * See the constructor without a seed for the other parameters.
+     */
+    public RedBlueGrid(int size,
+                       int neighborhoodDistance,
+                       double fractionVacant,
+                       double fractionRed,
+                       double happinessThreshold,
+                       long seed) {
+        this(size, neighborhoodDistance, fractionVacant, fractionRed, happinessThreshold, new SplitMix64(seed));
+    }
+
+    /**
+     * Constructs a grid that draws all of its random numbers from the given generator,
+     * for example a SplittableRandom or an L64X128MixRandom.
+     *
+     * @param rng the random number generator to use for every reset and random step, cannot be null.
+     *            The grid keeps using it, so it should not be shared with other threads.
+     * See the constructor without a seed for the other parameters.
+     */
+    public RedBlueGrid(int size,
+                       int neighborhoodDistance,
+                       double fractionVacant,
+                       double fractionRed,
+                       double happinessThreshold,
+                       RandomGenerator rng) {
+
+        if (rng == null) {
+            throw new IllegalArgumentException("The random number generator cannot be null.");
+        }
+        this.rng = rng;
 
         greaterThanOne(size);
         this.size = size;
@@ -39,12 +136,248 @@ public class RedBlueGrid {
         greaterThanOne(neighborhoodDistance);
         this.neighborhoodDistance = neighborhoodDistance;
 
-        this.grid = new Color[size][size];
+        allocate(new byte[size * size]);
 
         //generates a random grid with the given fractions
         reset(fractionVacant, fractionRed, happinessThreshold);
     }
 
+    /**
+     * Builds a grid around cells that were already filled in, as GridSnapshot.load does, instead of
+     * drawing a random arrangement. The number of vacant, red and blue cells is counted from the cells.
+     *
+     * @param cells the row-major cells, of length size * size, each CellState.VACANT, RED or BLUE;
+     *              the grid keeps this array
+     * @param stepCount the value getStepCount starts from, >= 0
+     * See the constructor with a random number generator for the other parameters.
+     */
+    RedBlueGrid(int size,
+                int neighborhoodDistance,
+                double happinessThreshold,
+                RandomGenerator rng,
+                byte[] cells,
+                long stepCount) {
+
+        if (rng == null || cells == null) {
+            throw new IllegalArgumentException("The random number generator and cells cannot be null.");
+        }
+        this.rng = rng;
+
+        greaterThanOne(size);
+        this.size = size;
+
+        greaterThanOne(neighborhoodDistance);
+        this.neighborhoodDistance = neighborhoodDistance;
+
+        isFraction(happinessThreshold);
+        this.happinessThreshold = happinessThreshold;
+
+        if (cells.length != size * size) {
+            throw new IllegalArgumentException("There must be exactly size * size cells.");
+        }
+        if (stepCount < 0) {
+            throw new IllegalArgumentException("The step count cannot be negative.");
+        }
+        for (byte state : cells) {
+            if (state == CellState.RED) {
+                numRed++;
+            } else if (state == CellState.BLUE) {
+                numBlue++;
+            } else if (state != CellState.VACANT) {
+                throw new IllegalArgumentException("Every cell must be vacant, red or blue.");
+            }
+        }
+        this.numVacant = cells.length - numRed - numBlue;
+        this.stepCount = stepCount;
+
+        allocate(cells);
+        cellsReplaced();
+    }
+
+    /**
+     * Takes the cell array and allocates everything else whose size depends on the grid
+     * @param cells the row-major cells, of length size * size
+     */
+    private void allocate(byte[] cells) {
+        this.cells = cells;
+        this.counts = new NeighbourCounts(size, neighborhoodDistance, cells);
+        this.dirtyBands = new DirtyBands(size, neighborhoodDistance);
+        this.unhappyBits = new long[(cells.length + 63) / 64];
+        this.flippedBits = new long[unhappyBits.length];
+        this.sets = new CellSets(cells.length);
+        this.refreshBands = new int[dirtyBands.bands()];
+    }
+
+    /**
+     * Chooses how neighbours are counted. Both modes give exactly the same happiness values;
+     * see HappinessMode for what each costs. The default is HappinessMode.INCREMENTAL.
+     *
+     * @param mode the way to count neighbours, cannot be null
+     */
+    public void setHappinessMode(HappinessMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("The happiness mode cannot be null.");
+        }
+        if (mode == HappinessMode.SUMMED_AREA) {
+            this.counts = new SummedAreaTable(size, neighborhoodDistance, cells);
+        } else {
+            this.counts = new NeighbourCounts(size, neighborhoodDistance, cells);
+        }
+        counts.rebuild();
+    }
+
+    /**
+     * Lets full-grid passes such as census, fractionHappy and oneTimeStep run over bands of rows on a pool.
+     * The results are exactly the same as without one.
+     *
+     * @param pool the pool to run on, or null to do everything on the calling thread.
+     *             The grid does not shut the pool down.
+     */
+    public void setParallelism(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Tunes when simulate gives up. A step that does not lower the number of unhappy residents is a stall.
+     * While more than shakeReserve steps are left, a stall is answered with a random oneTimeStep to shake
+     * the grid out of it; after that, simulate stops once it has seen patience stalls in a row.
+     * The defaults are a patience of 10 and a shake reserve of 15.
+     *
+     * @param patience the number of stalls in a row to accept before stopping, patience >= 1
+     * @param shakeReserve the number of final steps in which the grid is no longer shaken, shakeReserve >= 0
+     * @throws IllegalArgumentException if patience < 1 or shakeReserve < 0
+     */
+    public void setStallPolicy(int patience, int shakeReserve) {
+        if (patience < 1 || shakeReserve < 0) {
+            throw new IllegalArgumentException("The patience must be at least 1 and the shake reserve cannot be negative.");
+        }
+        this.patience = patience;
+        this.shakeReserve = shakeReserve;
+    }
+
+    /**
+     * Sets who is told about every time step simulate takes and about the result.
+     * The default, SimulationListener.NO_OP, costs nothing: not even the clock is read.
+     *
+     * @param listener the listener, cannot be null; use SimulationListener.NO_OP to stop listening
+     * @throws IllegalArgumentException if listener is null
+     */
+    public void setSimulationListener(SimulationListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("The listener cannot be null, use SimulationListener.NO_OP instead.");
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * Sets where every move of oneTimeStep and directedSteps and every cell changed by setColor and shiftColor
+     * is written down, one block per time step. The log only makes sense on top of a snapshot of the grid
+     * taken just before it was attached (see GridSnapshot and TrajectoryReplayer); reset starts a new grid,
+     * so take a new snapshot and start a new log after it.
+     *
+     * @param recorder the recorder, or null to stop recording. The grid does not close it.
+     * @throws java.io.UncheckedIOException if the recorder cannot write the block marking the current step
+     */
+    public void setTrajectoryRecorder(TrajectoryRecorder recorder) {
+        this.recorder = recorder;
+        if (recorder != null) {
+            recorder.attached(stepCount, rngState());
+        }
+    }
+
+    /**
+     * Sets who is told which cells changed: after every time step, after every setColor and shiftColor,
+     * and after reset. Without one nothing is collected.
+     *
+     * @param listener the listener, or null to stop telling anyone
+     */
+    public void setCellChangeListener(CellChangeListener listener) {
+        this.changeListener = listener;
+        changedCount = 0;
+    }
+
+    /**
+     * Adds a cell to the batch for the change listener; only call it while there is one
+     * @param index the row-major index of a cell that changed
+     */
+    private void cellChanged(int index) {
+        if (changedCount == changed.length) {
+            changed = Arrays.copyOf(changed, changedCount * 2);
+        }
+        changed[changedCount++] = index;
+    }
+
+    /**
+     * Hands the batch of changed cells to the change listener, if there is one and anything changed
+     */
+    private void changesDone() {
+        if (changeListener != null && changedCount > 0) {
+            changeListener.cellsChanged(changed, changedCount);
+        }
+        changedCount = 0;
+    }
+
+    /**
+     * Ends the recorder's block for the step just taken, if there is a recorder
+     */
+    private void stepRecorded() {
+        if (recorder != null) {
+            recorder.endStep(stepCount, rngState());
+        }
+    }
+
+    /**
+     * @return the state of the random number generator for the trajectory log, or 0 if it is not a SplitMix64
+     */
+    private long rngState() {
+        return rng instanceof SplitMix64 ? ((SplitMix64) rng).state() : 0;
+    }
+
+    /**
+     * Switches the per-phase timers and counters of getInstrumentation on or off. They are off by default,
+     * and while they are off each phase of a step costs one null check more than without them.
+     * Switching them off keeps the totals so far; GridInstrumentation.reset clears them.
+     *
+     * @param on whether to record from now on
+     */
+    public void setInstrumented(boolean on) {
+        if (!on && instrumentation == null) {
+            return;
+        }
+        GridInstrumentation timers = getInstrumentation();
+        instruments = on ? timers : null;
+        timers.setEnabled(on);
+    }
+
+    /**
+     * @return the timers and counters of this grid, the same object for the life of the grid.
+     * They only count while setInstrumented(true) is in effect.
+     */
+    public GridInstrumentation getInstrumentation() {
+        if (instrumentation == null) {
+            instrumentation = new GridInstrumentation();
+        }
+        return instrumentation;
+    }
+
+    /**
+     * @return the start time of a phase for tock, or 0 without reading the clock while instrumentation is off
+     */
+    private long tick() {
+        return instruments == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds the time since tick to a phase, if instrumentation is on
+     * @param phase the phase that just ended
+     * @param start what tick returned when it began
+     */
+    private void tock(GridInstrumentation.Phase phase, long start) {
+        if (instruments != null) {
+            instruments.phase(phase, start);
+        }
+    }
+
     /**
      * Evaluate if the size of the grid is greater than or equal to 1.
      * @param number the number we are evaluating to see if it's greater than or equal to 1.
@@ -62,7 +395,7 @@ public class RedBlueGrid {
      * @throws IllegalArgumentException if the requirement is not satisfied.
      */
     private void isFraction(double number) {
-        if (number > 1 || number < 0) {
+        if (!(number >= 0 && number <= 1)) {
             throw new IllegalArgumentException("Your number"
                     + " must be a decimal between 0 and 1, inclusive.");
         }
@@ -75,13 +408,50 @@ public class RedBlueGrid {
      * @return the colour of the square, if the colour is not Red or Blue, then it will return White.
      */
     public Color getColor(int row, int col) {
-        if (this.grid[row][col] == COLORS[1]) {
-            return COLORS[1];
-        } else if (this.grid[row][col] == COLORS[2]) {
-            return COLORS[2];
-        }
+        checkLocation(row, col);
+        return CellState.toColor(cells[row * size + col]);
+    }
+
+    /**
+     * @return the length of one side of the grid
+     */
+    public int getSize() {
+        return size;
+    }
 
-        return COLORS[0];
+    /**
+     * @return the neighbourhood distance the grid was built with
+     */
+    public int getNeighborhoodDistance() {
+        return neighborhoodDistance;
+    }
+
+    /**
+     * @return the fraction of same-colour neighbours a resident needs to be happy
+     */
+    public double getHappinessThreshold() {
+        return happinessThreshold;
+    }
+
+    /**
+     * @return the number of time steps, random or directed, taken since the grid was last reset
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * @return the cells themselves, row-major, for GridSnapshot to read; they must not be written
+     */
+    byte[] cells() {
+        return cells;
+    }
+
+    /**
+     * @return the random number generator the grid draws from
+     */
+    RandomGenerator rng() {
+        return rng;
     }
 
     /**
@@ -110,38 +480,24 @@ public class RedBlueGrid {
     }
 
     /**
-     * Generates an array with red, blue and white corresponding to numRed, numBlue, numVacant
-     * @param colorList an array of colours with the number of red elements corresponding to numRed,
-     *                  the number of blue elements corresponding to numBlue and
-     *                  the number of white elements corresponding to numVacant
+     * Fills this.cells in order with numRed red cells, then numBlue blue cells, then numVacant vacant cells
      */
-    private void allColoursArray(ArrayList<Color> colorList) {
-        for (int i = 0; i < numRed; i++){
-            colorList.add(COLORS[1]);
-        }
-        for (int i = 0; i < numBlue; i++){
-            colorList.add(COLORS[2]);
-        }
-        for (int i = 0; i < numVacant; i++){
-            colorList.add(COLORS[0]);
-        }
+    private void allColoursArray() {
+        Arrays.fill(cells, 0, numRed, CellState.RED);
+        Arrays.fill(cells, numRed, numRed + numBlue, CellState.BLUE);
+        Arrays.fill(cells, numRed + numBlue, cells.length, CellState.VACANT);
     }
 
     /**
-     * Colors this.grid in with red, blue and white corresponding to numRed, numBlue, numVacant
-     * @param colorList an array of colours with the number of red elements corresponding to numRed,
-     *                  the number of blue elements corresponding to numBlue and
-     *                  the number of white elements corresponding to numVacant
+     * Shuffles this.cells in place with a Fisher-Yates shuffle, so that every arrangement of the
+     * numRed, numBlue and numVacant cells is equally likely. This takes one random number per cell.
      */
-    private void colorGrid(ArrayList<Color> colorList) {
-        Random rand = new Random();
-
-        for (int row = 0; row < size; row++ ){
-            for (int col = 0; col < size; col++) {
-                int randColor = rand.nextInt(colorList.size()); //we have to recalculate because we are removing elements
-                setColor(row, col, colorList.get(randColor));
-                colorList.remove(randColor);  //remove that specific color we used
-            }
+    private void colorGrid() {
+        for (int i = cells.length - 1; i > 0; i--) {
+            int randCell = rng.nextInt(i + 1);
+            byte temp = cells[i];
+            cells[i] = cells[randCell];
+            cells[randCell] = temp;
         }
     }
 
@@ -160,12 +516,38 @@ public class RedBlueGrid {
 
         enoughSpace(numRed + numBlue, size * size);
 
-        //making an arraylist with all the colours;
-        ArrayList<Color> colorList = new ArrayList<>();
-        allColoursArray(colorList);
+        //lay out all the colours in order
+        allColoursArray();
+
+        //then shuffle them across the grid
+        colorGrid();
 
-        //go to each cell and generate a random index to color it out
-        colorGrid(colorList);
+        stepCount = 0;
+        cellsReplaced();
+        if (changeListener != null) {
+            changedCount = 0;
+            changeListener.allCellsChanged();
+        }
+    }
+
+    /**
+     * Brings everything derived from the cells up to date after all of them were written at once
+     */
+    private void cellsReplaced() {
+        //the whole grid changed, so recount every neighbourhood in one pass
+        counts.rebuild();
+
+        //and start the sets again: the vacancies are known now, the residents are classified by the next refresh
+        sets.clear();
+        Arrays.fill(unhappyBits, 0L);
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == CellState.VACANT) {
+                sets.put(i, CellSets.VACANT);
+            }
+        }
+        liveRed = numRed;
+        liveBlue = numBlue;
+        dirtyBands.markAll();
     }
 
     /**
@@ -186,11 +568,45 @@ public class RedBlueGrid {
         return (location < 0 || location >= this.size );
     }
 
+    /**
+     * checks that the cell (row, col) is within the grid. With the flat cell array an
+     * out of range column would otherwise silently land on a neighbouring row.
+     * @param row the row index
+     * @param col the column index
+     * @throws IllegalArgumentException if row or col is not within the bounds.
+     */
+    private void checkLocation(int row, int col) {
+        if (notValidLocation(row) || notValidLocation(col)) {
+            throw new IllegalArgumentException("The resident's location exceeds the bounds of the grid");
+        }
+    }
+
+    /**
+     * Writes a state into a single cell, updates the neighbour counts around it and the sets, and marks
+     * the bands whose residents it could have made happy or unhappy. A new resident is in no unhappy set
+     * until the next refresh classifies it. Every change to the grid after it is initialized goes through here.
+     * @param index the row-major index of the cell, 0 <= index < size * size
+     * @param state one of CellState.VACANT, CellState.RED or CellState.BLUE
+     */
+    private void setCell(int index, byte state) {
+        byte old = cells[index];
+        if (old == state) {
+            return;
+        }
+        cells[index] = state;
+        counts.cellChanged(index, old, state);
+        liveRed += (state == CellState.RED ? 1 : 0) - (old == CellState.RED ? 1 : 0);
+        liveBlue += (state == CellState.BLUE ? 1 : 0) - (old == CellState.BLUE ? 1 : 0);
+        sets.put(index, state == CellState.VACANT ? CellSets.VACANT : CellSets.NONE);
+        clearUnhappy(index);
+        dirtyBands.markAround(index / size);
+    }
+
     /**
      * setColor method
      * @param row - the number of rows inside the grid
      * @param col - the number of columns inside the grid
-     * @param color - the color we want the entry at this.grid[row][col] to be.
+     * @param color - the color we want the cell at (row, col) to be.
      *
      * @return returns true if the grid is successfully set, otherwise returns false
      */
@@ -205,7 +621,15 @@ public class RedBlueGrid {
             return false;
         }
 
-        this.grid[row][col] = color;
+        int index = row * size + col;
+        setCell(index, CellState.fromColor(color));
+        if (recorder != null) {
+            recorder.set(index, cells[index]);
+        }
+        if (changeListener != null) {
+            cellChanged(index);
+            changesDone();
+        }
 
         return true;
     }
@@ -217,12 +641,15 @@ public class RedBlueGrid {
      * @param col the column of the grid (col < size)
      */
     public void shiftColor(int row, int col) {
-        if (grid[row][col] == COLORS[0]) {
-            grid[row][col] = COLORS[1];
-        } else if (grid[row][col] == COLORS[1]) {
-            grid[row][col] = COLORS[2];
-        } else {
-            grid[row][col] = COLORS[0];
+        checkLocation(row, col);
+        int index = row * size + col;
+        setCell(index, CellState.next(cells[index]));
+        if (recorder != null) {
+            recorder.set(index, cells[index]);
+        }
+        if (changeListener != null) {
+            cellChanged(index);
+            changesDone();
         }
     }
 
@@ -263,7 +690,44 @@ public class RedBlueGrid {
         gridInitializer();
     }
 
-    /** returns whether the given resident at grid[row][col] is happy
+    /**
+     * Recolours the cells as reset does, after reseeding the random number generator.
+     * Resetting two grids of the same size with the same seed gives identical grids and
+     * identical random steps from then on.
+     *
+     * @param seed the new seed of the random number generator, any long.
+     * See reset without a seed for the other parameters.
+     */
+    public void reset(double fractionVacant,
+                      double fractionRed,
+                      double happinessThreshold,
+                      long seed) {
+        reset(fractionVacant, fractionRed, happinessThreshold, new SplitMix64(seed));
+    }
+
+    /**
+     * Recolours the cells as reset does, drawing from a new random number generator from now on.
+     *
+     * @param rng the random number generator to use for this and every later reset and random step,
+     *            cannot be null.
+     * See reset without a seed for the other parameters.
+     */
+    public void reset(double fractionVacant,
+                      double fractionRed,
+                      double happinessThreshold,
+                      RandomGenerator rng) {
+        if (rng == null) {
+            throw new IllegalArgumentException("The random number generator cannot be null.");
+        }
+        //an invalid reset leaves the grid, and the generator it draws from, as they were
+        isFraction(fractionVacant);
+        isFraction(fractionRed);
+        isFraction(happinessThreshold);
+        this.rng = rng;
+        reset(fractionVacant, fractionRed, happinessThreshold);
+    }
+
+    /** returns whether the given resident at (row, col) is happy
      * a resident is happy if the fraction of neighbours with the same
      * color is more than the happiness threshold
      * @throws IllegalArgumentException error if the selected color block is white.
@@ -275,18 +739,28 @@ public class RedBlueGrid {
      * @return true if the resident's happiness exceeds the happiness threshold, false otherwise.
      */
     public boolean isHappy(int row, int col) {
-        if (notValidLocation(row) || notValidLocation(col)) {
-            throw new IllegalArgumentException("The resident's location exceeds the bounds of the grid");
-        }
+        checkLocation(row, col);
 
-        if (getColor(row, col) != COLORS[0]) {
-            return happyNeighbours(row, col, getColor(row, col)) >= happinessThreshold;
+        byte state = cells[row * size + col];
+        if (state != CellState.VACANT) {
+            return isHappy(row, col, state);
         } else {
             throw new IllegalArgumentException("Selected color block is white!");
         }
     }
 
-    /** returns whether the given resident at grid[row][col] is happy
+    /**
+     * isHappy without the checks, for the loops that already know the cell is occupied
+     * @param row the row of an occupied cell
+     * @param col the column of an occupied cell
+     * @param state the state of that cell, CellState.RED or CellState.BLUE
+     * @return true if the resident's happiness meets the happiness threshold
+     */
+    private boolean isHappy(int row, int col, byte state) {
+        return sameNeighbours(row, col, state) >= happinessThreshold;
+    }
+
+    /** returns whether the given resident at (row, col) is happy
      * a resident is happy if the fraction of neighbours with the same
      * color is more than the happiness threshold
      * public for testing reasons
@@ -299,37 +773,38 @@ public class RedBlueGrid {
      * @return the fraction of neighbours with the same color
      */
     public double happyNeighbours(int row, int col, Color color) {
-        int happyNeighbours = 0;
-        int totalNeighbours = 0;
-
-        for (int rowNum = row - neighborhoodDistance; rowNum <= row + neighborhoodDistance; rowNum++) {
-            //check if the square is outside the row limit
-            if (rowNum >= size) {
-                break;
-            }
-
-            if (rowNum >= 0) {
-                for (int colNum = col - neighborhoodDistance; colNum <= col + neighborhoodDistance; colNum++) {
-                    //check if the square is outside the column limit
-                    if (colNum >= size) {
-                        break;
-                    }
+        return sameNeighbours(row, col, CellState.fromColor(color));
+    }
 
-                    if (colNum >= 0) {
-                        //check each grid in the row
-                        if (rowNum != row || colNum != col) {
-                            totalNeighbours++;
+    /**
+     * happyNeighbours over cell states. The window is clipped to the grid, so cells on an
+     * edge or corner have fewer neighbours, and vacant neighbours still count towards the total.
+     * The red and blue counts come from the HappinessEngine, so this is O(1) in the default mode.
+     *
+     * @param row the row of the cell, 0 <= row < size
+     * @param col the column of the cell, 0 <= col < size
+     * @param state the state to count; CellState.INVALID matches no cell
+     * @return the fraction of neighbours in the given state
+     */
+    private double sameNeighbours(int row, int col, byte state) {
+        int windowCells = (Math.min(row + neighborhoodDistance, size - 1) - Math.max(row - neighborhoodDistance, 0) + 1)
+                * (Math.min(col + neighborhoodDistance, size - 1) - Math.max(col - neighborhoodDistance, 0) + 1);
+
+        int happyNeighbours;
+        if (state == CellState.VACANT) {
+            happyNeighbours = windowCells - counts.windowCount(row, col, CellState.RED)
+                    - counts.windowCount(row, col, CellState.BLUE);
+        } else {
+            happyNeighbours = counts.windowCount(row, col, state);
+        }
 
-                            if (color == grid[rowNum][colNum]) {
-                                happyNeighbours++;
-                            }
-                        }
-                    }
-                }
-            }
+        //the cell itself is not its own neighbour
+        if (cells[row * size + col] == state) {
+            happyNeighbours--;
         }
-        return happyNeighbours / (double) totalNeighbours;
+        int totalNeighbours = windowCells - 1;
 
+        return happyNeighbours / (double) totalNeighbours;
     }
 
     /**
@@ -339,123 +814,338 @@ public class RedBlueGrid {
      */
     public double fractionHappy() {
 
-        //numHappyResidents is the number of happy residents within the grid counted so far.
-        int numHappyResidents = 0;
+        //numHappyResidents is the number of happy residents within the grid.
+        long numHappyResidents = census().getHappy();
         //fractionHappy is the decimal value representing the percent of residents who are happy.
-        //Calculated at the end of the fxn.
-        double fractionHappy = 0;
-
-        for (int rowNum = 0; rowNum < size; rowNum++ ){
-            for (int colNum = 0; colNum < size; colNum++ ){
-                if (grid[rowNum][colNum] != COLORS[0]) {
-                    if (isHappy(rowNum, colNum)) {
-                        numHappyResidents++;
+        double fractionHappy = (double) numHappyResidents / (size * size - numVacant);
+
+        isFraction(fractionHappy);
+
+        return fractionHappy;
+    }
+
+    /**
+     * Counts the happy and unhappy residents of each colour. Only the bands of rows near cells that
+     * changed since the last count are classified again, and the unhappy counts are then the sizes of
+     * the unhappy sets, so once the grid settles down this costs far less than visiting every cell.
+     * If a pool was given to setParallelism the dirty bands are classified on that pool; the result
+     * is the same either way.
+     *
+     * @return the census of the whole grid, will not be null
+     */
+    public HappinessCensus census() {
+        refresh();
+
+        long unhappyRed = sets.size(CellSets.UNHAPPY_RED);
+        long unhappyBlue = sets.size(CellSets.UNHAPPY_BLUE);
+        return new HappinessCensus(liveRed - unhappyRed, unhappyRed, liveBlue - unhappyBlue, unhappyBlue);
+    }
+
+    /**
+     * Classifies the residents of every dirty band again, then moves the residents whose happiness
+     * changed into or out of the unhappy sets, so that unhappyBits and the sets describe the grid as it is now
+     */
+    private void refresh() {
+        long start = tick();
+        counts.prepare();
+        int dirty = dirtyBands.takeDirty(refreshBands);
+        if (pool == null || dirty < 2) {
+            for (int i = 0; i < dirty; i++) {
+                classifyBand(refreshBands[i]);
+            }
+        } else {
+            pool.invoke(new RefreshTask(0, dirty));
+        }
+
+        //the sets are shared by every band, so they are updated here on one thread, in row-major order
+        for (int i = 0; i < dirty; i++) {
+            int band = refreshBands[i];
+            int wordEnd = (dirtyBands.rowEnd(band) * size + 63) >>> 6;
+            for (int word = (dirtyBands.rowStart(band) * size) >>> 6; word < wordEnd; word++) {
+                long flipped = flippedBits[word];
+                while (flipped != 0) {
+                    int index = (word << 6) + Long.numberOfTrailingZeros(flipped);
+                    flipped &= flipped - 1;
+                    if (isUnhappy(index)) {
+                        sets.put(index, cells[index] == CellState.RED ? CellSets.UNHAPPY_RED : CellSets.UNHAPPY_BLUE);
+                    } else {
+                        sets.put(index, CellSets.NONE);
                     }
                 }
+            }
+        }
 
+        if (instruments != null) {
+            for (int i = 0; i < dirty; i++) {
+                int band = refreshBands[i];
+                instruments.cellsClassified((long) (dirtyBands.rowEnd(band) - dirtyBands.rowStart(band)) * size);
             }
+            tock(GridInstrumentation.Phase.CLASSIFY, start);
         }
+    }
 
-        fractionHappy = (double) numHappyResidents / (size * size - numVacant);
+    /**
+     * Classifies every resident of a band, setting its bit in unhappyBits if it is unhappy and
+     * recording in flippedBits which bits changed. A band owns the words of both bit sets that
+     * cover it, so bands can be classified at the same time.
+     * @param band the band to classify
+     */
+    private void classifyBand(int band) {
+        int rowNum = dirtyBands.rowStart(band);
+        int colNum = 0;
+        int start = rowNum * size;
+        int end = dirtyBands.rowEnd(band) * size;
+
+        for (int word = start >>> 6; (word << 6) < end; word++) {
+            long unhappy = 0;
+            int wordEnd = Math.min(end, (word + 1) << 6);
+            for (int index = word << 6; index < wordEnd; index++) {
+                byte state = cells[index];
+                if (state != CellState.VACANT && !isHappy(rowNum, colNum, state)) {
+                    unhappy |= 1L << index;
+                }
+                if (++colNum == size) {
+                    colNum = 0;
+                    rowNum++;
+                }
+            }
+            flippedBits[word] = unhappyBits[word] ^ unhappy;
+            unhappyBits[word] = unhappy;
+        }
+    }
 
-        isFraction(fractionHappy);
+    /**
+     * Clears the unhappy bit of a cell whose resident left or changed, keeping the bits in step with the sets
+     * @param index the row-major index of the cell
+     */
+    private void clearUnhappy(int index) {
+        unhappyBits[index >>> 6] &= ~(1L << index);
+    }
 
-        return fractionHappy;
+    /**
+     * @param index the row-major index of an occupied cell
+     * @return whether that resident was unhappy at the last refresh
+     */
+    private boolean isUnhappy(int index) {
+        return (unhappyBits[index >>> 6] & (1L << index)) != 0;
     }
 
     /**
-     * adds the coordinates of empty space and occupied unhappy spaces to two separate arrays
-     *
-     * @param emptyCoordinates the arrayList holding the empty coordinates
-     * @param occupiedCoordinates the arrayList holding the occupied coordinates of the unhappy people
-     */
-    private void fillCoordinates(List<Coordinate> emptyCoordinates, List<Coordinate> occupiedCoordinates) {
-        for (int i = 0; i < this.size; i++){
-            for (int j = 0; j < this.size; j++){
-                if (grid[i][j] == Color.WHITE){
-                    emptyCoordinates.add(new Coordinate(i,j));
-                }
-                else {
-                    if (!isHappy(i, j)){
-                        occupiedCoordinates.add(new Coordinate(i, j));
-                    }
-                }
+     * Classifies a range of the bands in refreshBands, splitting the range in half until each task has one band
+     */
+    private final class RefreshTask extends RecursiveAction {
+        private final int start;
+        private final int end;
+
+        RefreshTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                classifyBand(refreshBands[start]);
+                return;
             }
+            int middle = (start + end) >>> 1;
+            invokeAll(new RefreshTask(start, middle), new RefreshTask(middle, end));
         }
     }
 
+    /**
+     * allocates the index buffers the first time a step needs them
+     */
+    private void ensureBuffers() {
+        if (vacantBuffer == null) {
+            vacantBuffer = new int[cells.length];
+            moverBuffer = new int[cells.length];
+        }
+    }
+
+    /**
+     * copies the vacant cells into vacantBuffer and the unhappy residents into moverBuffer, both in row-major
+     * order, and sets bufferedVacant and bufferedMovers to the number of each. The sets are brought up to date
+     * first, which only classifies the bands near cells that changed, so apart from that this is a scan of the
+     * sets' bitmaps, one word per 64 cells, plus O(V + M) for V vacancies and M movers rather than a pass over
+     * the whole grid.
+     *
+     * The members are listed in row-major order rather than in the order of the sets, which depends on the order
+     * they were added and removed in: that way a step depends only on the cells and the random number generator,
+     * and a grid loaded from a GridSnapshot takes the same steps as the grid that was saved.
+     */
+    private void fillCoordinates() {
+        ensureBuffers();
+        refresh();
+
+        long start = tick();
+        bufferedVacant = sets.copyInOrder(CellSets.VACANT, CellSets.VACANT, vacantBuffer);
+        bufferedMovers = sets.copyInOrder(CellSets.UNHAPPY_RED, CellSets.UNHAPPY_BLUE, moverBuffer);
+        tock(GridInstrumentation.Phase.GATHER, start);
+    }
+
     /**
      * simulates exactly one time step of movement where all unhappy reds and unhappy blues simultaneously move into
      * vacant (white) spots on the grid. If there is not enough vacant spots left on the grid, the unhappy reds
      * or unhappy blues will stop moving.
      *
-     * Movement is random.
+     * Movement is random. Movers and vacancies come from the maintained sets and are drawn with a partial
+     * Fisher-Yates shuffle of the two index buffers, one O(1) pick per move. Apart from classifying the bands
+     * near the last moves and scanning the sets' bitmaps, a step costs O(vacancies + movers) and allocates
+     * nothing once the buffers exist.
+     *
+     * With a pool from setParallelism, the step runs in two phases: the dirty bands are classified in
+     * parallel, then movers are matched to vacancies on this thread and the matched moves are applied in
+     * parallel. Every move touches two cells no other move touches, so the threads never write the same cell.
+     * The random draws are the same either way, so a seeded grid takes exactly the same step with or without
+     * a pool, on any number of threads.
+     *
+     * @return the number of residents that moved
      */
-    public void oneTimeStep() {
-
-        //Initializing two array lists, one for empty coordinates and one for occupied coordinates
-        List<Coordinate> emptyCoordinates = new ArrayList<>();
-        List<Coordinate> occupiedCoordinates = new ArrayList<>();
-
-        fillCoordinates(emptyCoordinates, occupiedCoordinates);
+    public int oneTimeStep() {
 
+        long mark = instruments == null ? 0 : instruments.allocationMark();
+        stepCount++;
+        fillCoordinates();
+        long start = tick();
+        int sizeEmpty = bufferedVacant;
+        int sizeOccupied = bufferedMovers;
 
         //compute the number of changes necessary
-        int sizeEmpty = emptyCoordinates.size();
-        int sizeOccupied = occupiedCoordinates.size();
         int numChanges = Math.min(sizeEmpty, sizeOccupied);
 
-        //move elements NumOfChanges times
+        //match movers to vacancies: after this loop moverBuffer[i] moves to vacantBuffer[i] for i < numChanges
         for (int i = 0; i < numChanges; i++) {
 
-            Random rand = new Random();
-            int randOccp = rand.nextInt(sizeOccupied - i);  // -i here is because we shrink the size at each iteration
-            int randEmpt = rand.nextInt(sizeEmpty - i);
+            //draw from the part of each buffer not used yet, i.e. positions i and up
+            int randOccp = i + rng.nextInt(sizeOccupied - i);
+            int randEmpt = i + rng.nextInt(sizeEmpty - i);
+
+            //swap the drawn entries to position i so that they are never drawn again
+            int occupiedIndex = moverBuffer[randOccp];
+            moverBuffer[randOccp] = moverBuffer[i];
+            moverBuffer[i] = occupiedIndex;
+            int emptyIndex = vacantBuffer[randEmpt];
+            vacantBuffer[randEmpt] = vacantBuffer[i];
+            vacantBuffer[i] = emptyIndex;
+        }
 
-            //swap the two values
-            setColor(emptyCoordinates.get(randEmpt).getX(), emptyCoordinates.get(randEmpt).getY(), grid[occupiedCoordinates.get(randOccp).getX()][occupiedCoordinates.get(randOccp).getY()]);
-            setColor(occupiedCoordinates.get(randOccp).getX(), occupiedCoordinates.get(randOccp).getY(), COLORS[0]);
+        //move elements NumOfChanges times
+        if (pool == null) {
+            for (int i = 0; i < numChanges; i++) {
+                moveResident(moverBuffer[i], vacantBuffer[i]);
+            }
+        } else {
+            pool.invoke(new MoveTask(0, numChanges));
+            movesApplied(numChanges);
+        }
+        if (recorder != null) {
+            for (int i = 0; i < numChanges; i++) {
+                recorder.move(moverBuffer[i], vacantBuffer[i], cells[vacantBuffer[i]]);
+            }
+        }
+        if (changeListener != null) {
+            for (int i = 0; i < numChanges; i++) {
+                cellChanged(moverBuffer[i]);
+                cellChanged(vacantBuffer[i]);
+            }
+            changesDone();
+        }
+        stepRecorded();
 
-            //removing the coordinates from the arrayList
-            emptyCoordinates.remove(randEmpt);
-            occupiedCoordinates.remove(randOccp);
+        if (instruments != null) {
+            tock(GridInstrumentation.Phase.MOVE, start);
+            instruments.moves(numChanges, numChanges);
+            instruments.stepDone(mark);
         }
+        return numChanges;
     }
 
     /**
-     * Sorts array list of type empty Happiness Coordinate in ascending order of happiness.
-     * @param locHapOfColour Unsorted list of all vacant grid locations, of type EmptyHappinessCoordinate.
-     *                       - see class EmptyHappinessCoordinate for more info.
+     * Moves the resident of one cell into a vacant cell, leaving the first cell vacant
+     * @param from the row-major index of an occupied cell
+     * @param to the row-major index of a vacant cell
      */
-    private void bubbleSort(List<EmptyHappinessCoordinate> locHapOfColour) {
-        int i;
-        int j;
-        EmptyHappinessCoordinate temp;
-        int n = locHapOfColour.size();
-        for (i = 0; i < n - 1; i++) {
-            for (j = 0; j < n - i - 1; j++) {
-                if (locHapOfColour.get(j).getEmptyHappinessCoordinate() < locHapOfColour.get(j + 1).getEmptyHappinessCoordinate()) {
-
-                    // Swap arr[j] and arr[j+1]
-                    temp = locHapOfColour.get(j);
-                    locHapOfColour.set(j, locHapOfColour.get(j + 1));
-                    locHapOfColour.set(j + 1, temp);
+    private void moveResident(int from, int to) {
+        setCell(to, cells[from]);
+        setCell(from, CellState.VACANT);
+    }
+
+    /**
+     * Does the bookkeeping of setCell for the first numChanges moves in the buffers after MoveTask wrote them
+     * straight into the cells. The sets are updated in the same order moveResident would, so they end up exactly
+     * as after a serial step. Past a point, recounting the whole grid is cheaper than a delta per move.
+     * @param numChanges the number of matched moves that were applied
+     */
+    private void movesApplied(int numChanges) {
+        for (int i = 0; i < numChanges; i++) {
+            sets.put(vacantBuffer[i], CellSets.NONE);
+            sets.put(moverBuffer[i], CellSets.VACANT);
+            clearUnhappy(moverBuffer[i]);
+        }
+
+        long window = (2L * neighborhoodDistance + 1) * (2L * neighborhoodDistance + 1);
+        if (2 * numChanges * window >= cells.length) {
+            counts.rebuild();
+            dirtyBands.markAll();
+            return;
+        }
+        for (int i = 0; i < numChanges; i++) {
+            byte state = cells[vacantBuffer[i]];
+            counts.cellChanged(moverBuffer[i], state, CellState.VACANT);
+            counts.cellChanged(vacantBuffer[i], CellState.VACANT, state);
+            dirtyBands.markAround(moverBuffer[i] / size);
+            dirtyBands.markAround(vacantBuffer[i] / size);
+        }
+    }
+
+    /**
+     * Writes a range of matched moves straight into the cells. Nothing else is told;
+     * oneTimeStep calls movesApplied once all of them are done.
+     */
+    private final class MoveTask extends RecursiveAction {
+        private final int start;
+        private final int end;
+
+        MoveTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= MOVES_PER_TASK) {
+                for (int i = start; i < end; i++) {
+                    cells[vacantBuffer[i]] = cells[moverBuffer[i]];
+                    cells[moverBuffer[i]] = CellState.VACANT;
                 }
+                return;
             }
+            int middle = (start + end) >>> 1;
+            invokeAll(new MoveTask(start, middle), new MoveTask(middle, end));
         }
     }
 
     /**
-     * sorts an array in ascending order of happiness to prioritize a specific color of person in the red blue grid
+     * Ranks a list of type EmptyHappinessCoordinate in descending order of happiness, so the vacancy
+     * someone would be happiest in comes first. The sort is stable: vacancies that are equally good
+     * keep their row-major order. This is a merge sort, O(V log V) for V vacancies.
+     * @param locHapOfColour Unsorted list of all vacant grid locations, of type EmptyHappinessCoordinate.
+     *                       - see class EmptyHappinessCoordinate for more info.
+     */
+    private void rankVacancies(List<EmptyHappinessCoordinate> locHapOfColour) {
+        locHapOfColour.sort(HAPPIEST_FIRST);
+    }
+
+    /**
+     * ranks an array in descending order of happiness to prioritize a specific color of person in the red blue grid
      * @param emptyCoordinates an arrayList of type Empty Happiness Coordinate that holds the List you want to
      *                         sort favouring colour. emptyCoordinates cannot be null. emptyCoordinates
      *                         will be modified into a sorted array within this method.
      * @param colour must be a color in the COLORS array and cannot be the first colour in the COLORS array,
      *               COLORS[0].
      */
-    private void bubbleSortBasedOffParameter(List<EmptyHappinessCoordinate> emptyCoordinates, Color colour) {
-        EmptyHappinessCoordinate temp;
-        int n = emptyCoordinates.size();
+    private void rankVacanciesFor(List<EmptyHappinessCoordinate> emptyCoordinates, Color colour) {
         double happiness;
 
         for (EmptyHappinessCoordinate emptyCoordinate : emptyCoordinates) {
@@ -473,27 +1163,27 @@ public class RedBlueGrid {
             emptyCoordinate.modifyEmptyHappiness(happiness);
         }
 
-        bubbleSort(emptyCoordinates);
+        rankVacancies(emptyCoordinates);
     }
 
     /**
-     * used to test the bubbleSort function
+     * used to test the rankVacancies function
      * @param list the arrayList of type EmptyHappinessCoordinate that we are sorting, cannot be null
-     * @return a sorted arrayList of type EmptyHappinessCoordinate in ascending order, will not be null
+     * @return a sorted arrayList of type EmptyHappinessCoordinate in descending order, will not be null
      */
     public List <EmptyHappinessCoordinate> testBubbleSort(List <EmptyHappinessCoordinate> list) {
         List <EmptyHappinessCoordinate> tempList = list;
-        bubbleSort(tempList);
+        rankVacancies(tempList);
         return tempList;
     }
     /**
-     * used to test the bubbleSort function
+     * used to test the rankVacanciesFor function
      * @param list the arrayList of type EmptyHappinessCoordinate that we are sorting, cannot be null
-     * @return a sorted arrayList of type EmptyHappinessCoordinate in ascending order, will not be null
+     * @return a sorted arrayList of type EmptyHappinessCoordinate in descending order, will not be null
      */
     public List <EmptyHappinessCoordinate> testBubbleSortParameter(List <EmptyHappinessCoordinate> list, Color color) {
         List <EmptyHappinessCoordinate> tempList = list;
-        bubbleSortBasedOffParameter(tempList, color);
+        rankVacanciesFor(tempList, color);
         return tempList;
     }
 
@@ -501,123 +1191,186 @@ public class RedBlueGrid {
     /**
      * Optimized function to reaching maximum happiness in the least number of time-steps
      *
+     * Each time step is a directedSteps. The number of unhappy residents is read off the census after
+     * every step, which only reclassifies the bands the step touched, and the simulation stops as soon
+     * as nobody is unhappy or, see setStallPolicy, the count has stopped going down.
+     * The listener from setSimulationListener is told about every step and about the result.
+     * If the calling thread is interrupted the simulation stops after the current step, with the
+     * outcome INTERRUPTED and the thread still interrupted.
+     * While the grid is instrumented, the JVM's accounting of allocations per thread is on for the call;
+     * see GridInstrumentation.
+     *
      * @param numSteps the maximum number of time steps we should take before accepting defeat
-     *                 that not everyone will be happy, numSteps > 0.
-     * NOTE: cannot be tested as it heavily depends on the UI and the initial random generation of the grid. We cannot predict
-     * the randomization of the grid, thus we cannot predict the arrangement of the grid after one directed time step
+     *                 that not everyone will be happy, numSteps >= 0.
+     * @return the number of steps taken, why the simulation stopped and the census at that point
+     * @throws IllegalArgumentException if numSteps is negative
      */
-    public void simulate(int numSteps) {
-        double currentHappiness = 0;
-        int consecutive = 0;
+    public SimulationResult simulate(int numSteps) {
+        isPositive(numSteps);
+        if (instruments == null) {
+            return simulateSteps(numSteps);
+        }
+        GridInstrumentation.accountAllocations(true);
+        try {
+            return simulateSteps(numSteps);
+        } finally {
+            GridInstrumentation.accountAllocations(false);
+        }
+    }
 
-        //each iteration of the loop is one time step
-        for (int i = 0; i < numSteps; i++) {
-            directedSteps();
+    /**
+     * simulate, once its argument is checked
+     */
+    private SimulationResult simulateSteps(int numSteps) {
+        HappinessCensus census = census();
+        long leastUnhappy = census.getUnhappy();
+        int stalls = 0;
 
-            //happiness is
-            if (fractionHappy() >= 1.0) {
-                System.out.println("HOORAY! HAPPINESS IS 100%");
-                break;
+        //each iteration of the loop is one time step
+        for (int step = 1; step <= numSteps; step++) {
+            if (census.getUnhappy() == 0) {
+                return finish(step - 1, SimulationResult.Outcome.CONVERGED, census);
+            }
+            //stop between steps if asked to, leaving the interrupt for the caller to see
+            if (Thread.currentThread().isInterrupted()) {
+                return finish(step - 1, SimulationResult.Outcome.INTERRUPTED, census);
             }
 
-            //if we get the same happiness levels twice in a row
-            if (currentHappiness == fractionHappy() ){
-                //try randomizing the map
-                if (i < numSteps - 15) {
-                    //call oneTimeStep to move all the unhappy people to new random spots
-                    System.out.println("one time step to randomize");
-                    oneTimeStep();
-                } else {
-                    consecutive++;
+            //only read the clock for a listener that will see the result
+            long start = listener == SimulationListener.NO_OP ? 0 : System.nanoTime();
+            int directedMoves = directedSteps();
+            int moves = directedMoves;
+            census = census();
+            boolean progress = census.getUnhappy() < leastUnhappy;
+            boolean shaken = false;
+            if (progress) {
+                leastUnhappy = census.getUnhappy();
+                stalls = 0;
+            } else if (step <= numSteps - shakeReserve) {
+                //no progress: shake the grid with random moves while there are steps to spare
+                int shakes = oneTimeStep();
+                if (shakes > 0) {
+                    moves += shakes;
+                    census = census();
+                    shaken = true;
                 }
             }
-            //if there are more than 10 consecutive happiness levels in a row, then accept
-            //defeat, not everyone can be happy, and break out of the for loop
-            if (consecutive >= 10) {
-                System.out.println("Everyone cannot be happy in this configuration! "
-                        + "Happiness percentage: " + currentHappiness * 100 + "%");
-                break;
+            if (listener != SimulationListener.NO_OP) {
+                listener.onStep(new StepStats(step, moves, census, System.nanoTime() - start));
             }
 
-            //set the current happiness to fraction happy
-            currentHappiness = fractionHappy();
-            System.out.println("Happiness percentage: " + currentHappiness * 100 + "%");
+            //directedSteps is deterministic, so a step that moved nobody and could not be shaken will never move anybody
+            if (!progress && !shaken && (directedMoves == 0 || ++stalls >= patience)) {
+                return finish(step, census.getUnhappy() == 0
+                        ? SimulationResult.Outcome.CONVERGED : SimulationResult.Outcome.STALLED, census);
+            }
         }
+
+        return finish(numSteps, census.getUnhappy() == 0
+                ? SimulationResult.Outcome.CONVERGED : SimulationResult.Outcome.LIMIT, census);
+    }
+
+    /**
+     * Builds the result of a simulation and hands it to the listener
+     * @param steps the number of time steps taken
+     * @param outcome why the simulation stopped
+     * @param census the census of the grid when it stopped
+     * @return the result
+     */
+    private SimulationResult finish(int steps, SimulationResult.Outcome outcome, HappinessCensus census) {
+        SimulationResult result = new SimulationResult(steps, outcome, census);
+        listener.onFinish(result);
+        return result;
     }
 
     /**
      * Swaps a colour person into a vacant cell if the colour person will be more happy in that vacant cell
-     * Effects: the first element of unhappy and rankedVacant are both removed from their respective arrays.
-     * @param unhappy contains a complete list of all currently unhappy squares of a given colour, the
-     *                list cannot be null and must have one or more elements.
-     * @param rankedVacant contains a complete list of all currently vacant locations of type EmptyHappinessCoordinate.
-     *                     Each entry of EmptyHappinessCoordinate is ranked by the happiness field. Must have at least
-     *                     one element, and cannot be null.
-     *                     See **class EmptyHappinessCoordinate for more information.
-     * @param colour the colour of the current unhappy square that the function may move, must be either COLORS[1] or COLORS[2].
-     */
-    private void checkRemainingUnhappy(List <Coordinate> unhappy, List <EmptyHappinessCoordinate> rankedVacant, Color colour) {
-        int xCoordsWhite = rankedVacant.get(0).getX();
-        int yCoordsWhite = rankedVacant.get(0).getY();
-        int xCoordsColoured = unhappy.get(0).getX();
-        int yCoordsColoured = unhappy.get(0).getY();
+     * Effects: the first element of unhappy is removed from the queue.
+     * @param unhappy contains a complete queue of all currently unhappy squares of a given colour, the
+     *                queue cannot be null and must have one or more elements.
+     * @param vacant the best remaining vacant location, taken from the head of the ranked vacancies.
+     *               See **class EmptyHappinessCoordinate for more information.
+     * @param colour the state of the current unhappy square that the function may move, must be either
+     *               CellState.RED or CellState.BLUE.
+     * @return whether the colour person moved
+     */
+    private boolean checkRemainingUnhappy(Deque <Coordinate> unhappy, EmptyHappinessCoordinate vacant, byte colour) {
+        Coordinate coloured = unhappy.pollFirst();
+        int xCoordsWhite = vacant.getX();
+        int yCoordsWhite = vacant.getY();
+        int xCoordsColoured = coloured.getX();
+        int yCoordsColoured = coloured.getY();
 
         //need to make sure that happy neighbours isn't counting the square that it's about to move
-        setColor(xCoordsColoured, yCoordsColoured, COLORS[0]);
-        if (happyNeighbours(xCoordsWhite, yCoordsWhite, colour) > happyNeighbours(xCoordsColoured, yCoordsColoured, colour)) {
-            grid[xCoordsWhite][yCoordsWhite] = colour;
-        } else {
-            //set the colour back to its original colour
-            setColor(xCoordsColoured, yCoordsColoured, colour);
+        setCell(xCoordsColoured * size + yCoordsColoured, CellState.VACANT);
+        if (sameNeighbours(xCoordsWhite, yCoordsWhite, colour) > sameNeighbours(xCoordsColoured, yCoordsColoured, colour)) {
+            setCell(xCoordsWhite * size + yCoordsWhite, colour);
+            if (recorder != null) {
+                recorder.move(xCoordsColoured * size + yCoordsColoured, xCoordsWhite * size + yCoordsWhite, colour);
+            }
+            if (changeListener != null) {
+                cellChanged(xCoordsColoured * size + yCoordsColoured);
+                cellChanged(xCoordsWhite * size + yCoordsWhite);
+            }
+            return true;
         }
-
-        rankedVacant.remove(0);
-        unhappy.remove(0);
+        //set the colour back to its original colour
+        setCell(xCoordsColoured * size + yCoordsColoured, colour);
+        return false;
     }
 
     /**
-     * effects: initializes 3 array lists with their respective values as follows:
-     * unhappyBlues - An array list which contains a complete list of all unhappy blue blobs, and their coordinates (x,y).
-     * unhappyReds - An array list which contains a complete list of all unhappy red blobs, and their coordinates (x,y)
+     * effects: initializes 3 collections with their respective values as follows:
+     * unhappyBlues - A queue which contains a complete list of all unhappy blue blobs, and their coordinates (x,y).
+     * unhappyReds - A queue which contains a complete list of all unhappy red blobs, and their coordinates (x,y)
      * rankedVacant - An array list which contains a complete list of all vacant squares and their coordinates, (x,y), as well
      *                as a color, red or blue, which would be happier if it were to move to the position (x,y). It also contains
      *                how happy this coloured blob would be if it were to move to position (x,y).
      * NOTE: cannot be tested as it heavily depends on the UI and the initial random generation of the grid. We cannot predict
      * the randomization of the grid, thus we cannot predict the arrangement of the grid after one directed time step
+     *
+     * @return the number of residents that moved
      */
-    public void directedSteps() {
+    public int directedSteps() {
 
-        List<Coordinate> unhappyBlues = new ArrayList<>();
-        List<Coordinate> unhappyReds = new ArrayList<>();
+        long mark = instruments == null ? 0 : instruments.allocationMark();
+        stepCount++;
+        Deque<Coordinate> unhappyBlues = new ArrayDeque<>();
+        Deque<Coordinate> unhappyReds = new ArrayDeque<>();
         List<EmptyHappinessCoordinate> rankedVacant = new ArrayList<>();
 
-        //fills each of the Array Lists
-        for (int row = 0; row < this.size; row++) {
-            for (int col = 0; col < this.size; col++) {
-                if (grid[row][col] == COLORS[0]) {
-                    //if the spot is vacant (white) add it to the rankedVacant array
-                    rankedVacant.add(new EmptyHappinessCoordinate(row, col, happyNeighbours(row, col, COLORS[2]), happyNeighbours(row, col, COLORS[1])));
-                } else if (!isHappy(row, col)) {
-                    //if the current blue is unhappy, add to array unhappyBlues
-                    if (grid[row][col] == COLORS[2]) {
-                        unhappyBlues.add(new Coordinate(row, col));
-                    } else if (grid[row][col] == COLORS[1]) {
-                        //the current red is unhappy, add to array unhappyReds
-                        unhappyReds.add(new Coordinate(row, col));
-                    }
-                }
+        //fills each of the collections from the sets, in row-major order; only bands near recent moves are classified again
+        fillCoordinates();
+        long start = tick();
+        for (int i = 0; i < bufferedVacant; i++) {
+            int row = vacantBuffer[i] / size;
+            int col = vacantBuffer[i] % size;
+            rankedVacant.add(new EmptyHappinessCoordinate(row, col, sameNeighbours(row, col, CellState.BLUE), sameNeighbours(row, col, CellState.RED)));
+        }
+        for (int i = 0; i < bufferedMovers; i++) {
+            Coordinate mover = new Coordinate(moverBuffer[i] / size, moverBuffer[i] % size);
+            if (cells[moverBuffer[i]] == CellState.BLUE) {
+                unhappyBlues.add(mover);
+            } else {
+                unhappyReds.add(mover);
             }
         }
-        //Calls the bubbleSortEmptyHappinessCoordinate method. This method will rank all items in rankedVacant by
+        //Calls the rankVacancies method. This method will rank all items in rankedVacant by
         //hypothetical happiness.
         //sorts the rankedVacant list
-        bubbleSort(rankedVacant);
+        tock(GridInstrumentation.Phase.GATHER, start);
+        start = tick();
+        rankVacancies(rankedVacant);
+        tock(GridInstrumentation.Phase.RANK, start);
+        start = tick();
 
         //Determines if there are fewer unhappy people combined or vacant spaces.
         int minimum = Math.min(unhappyBlues.size() + unhappyReds.size(), rankedVacant.size());
         boolean arrayIsEmpty = false;
+        int moves = 0;
         //Calls checkRemainingUnahppy to modify the grid according to which colour would be happiest if it were to move to
-        //a given location in the rankedVacant arraylist. 
+        //a given location in the rankedVacant arraylist. Each iteration uses up exactly one vacancy, so the
+        //best remaining vacancy is always rankedVacant.get(i); nothing is ever removed from the front of the list.
         for (int i = 0; i < minimum; i++) {
 
 
@@ -626,40 +1379,45 @@ public class RedBlueGrid {
             //for the remaining unhappy people
             //but we only want to do this ONCE (not every time we loop through
             //the array
-            if (!arrayIsEmpty) {
+            if (!arrayIsEmpty && (unhappyReds.isEmpty() || unhappyBlues.isEmpty())) {
+                tock(GridInstrumentation.Phase.MOVE, start);
+                start = tick();
                 if (unhappyReds.isEmpty()) {
-                    //reorganize rankedVacant array to optimize for the remaining unhappy people
+                    //reorganize the rest of the rankedVacant array to optimize for the remaining unhappy people
                     //optimize for blue
-                    bubbleSortBasedOffParameter(rankedVacant, COLORS[2]);
+                    rankVacanciesFor(rankedVacant.subList(i, rankedVacant.size()), COLORS[2]);
                     //set arrayIsEmpty to be true so that we never sort the array again
                     arrayIsEmpty = true;
                 } else if (unhappyBlues.isEmpty()) {
                     //optimize for red
-                    bubbleSortBasedOffParameter(rankedVacant, COLORS[1]);
+                    rankVacanciesFor(rankedVacant.subList(i, rankedVacant.size()), COLORS[1]);
                     //set arrayIsEmpty to be true so that we never sort the array again
                     arrayIsEmpty = true;
                 }
+                tock(GridInstrumentation.Phase.RANK, start);
+                start = tick();
             }
 
-            Color preferedColor = rankedVacant.get(0).getColour();
+            EmptyHappinessCoordinate vacant = rankedVacant.get(i);
+            Color preferedColor = vacant.getColour();
 
             if (preferedColor == COLORS[1]) {
                     //check if there are any unhappy reds left
                     if (!unhappyReds.isEmpty()) {
-                        checkRemainingUnhappy(unhappyReds, rankedVacant, COLORS[1]);
+                        moves += checkRemainingUnhappy(unhappyReds, vacant, CellState.RED) ? 1 : 0;
                     }
                     //check to see if there are any unhappy blues left
                     else if (!unhappyBlues.isEmpty()) {
-                        checkRemainingUnhappy(unhappyBlues, rankedVacant, COLORS[2]);
+                        moves += checkRemainingUnhappy(unhappyBlues, vacant, CellState.BLUE) ? 1 : 0;
                     }
             } else if (preferedColor == COLORS[2]) {
                 //check if there are any unhappy blues left
                 if (!unhappyBlues.isEmpty()) {
-                    checkRemainingUnhappy(unhappyBlues, rankedVacant, COLORS[2]);
+                    moves += checkRemainingUnhappy(unhappyBlues, vacant, CellState.BLUE) ? 1 : 0;
                 }
                 //check if there are any unhappy reds left
                 else if (!unhappyReds.isEmpty()) {
-                    checkRemainingUnhappy(unhappyReds, rankedVacant, COLORS[1]);
+                    moves += checkRemainingUnhappy(unhappyReds, vacant, CellState.RED) ? 1 : 0;
                 }
             } else {
                 throw new IllegalArgumentException("Something went wrong in line 527. Not sure what");
@@ -667,6 +1425,16 @@ public class RedBlueGrid {
 
         }
 
+        if (instruments != null) {
+            tock(GridInstrumentation.Phase.MOVE, start);
+            //two lookups to score every vacancy and two to decide every move
+            instruments.neighbourQueries(2L * bufferedVacant + 2L * minimum);
+            instruments.moves(minimum, moves);
+            instruments.stepDone(mark);
+        }
+        changesDone();
+        stepRecorded();
+        return moves;
     }
 }
 /**
@@ -4,6 +4,9 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Hashtable;
 
 import javax.swing.Timer;
@@ -12,7 +15,7 @@ import java.awt.event.ActionListener;
 
 @SuppressWarnings("ALL")
 public class RedBlueGridUI extends JFrame {
-    private static final int GRID_SIZE = 4;
+    private static final int DEFAULT_GRID_SIZE = 4;
     private static final double DEFAULT_VACANT = 1;
     private static final double DEFAULT_RED = 0;
     private static final int DEFAULT_NEIGHBORHOOD_DISTANCE = 1;
@@ -20,54 +23,76 @@ public class RedBlueGridUI extends JFrame {
 
     private static final int DEFAULT_WINDOW_HEIGHT = 480;
     private static final int DEFAULT_WINDOW_WIDTH  = 480;
+    //the width of the metrics panel beside the grid, and the number of steps it plots
+    private static final int METRICS_WIDTH = 220;
+    private static final int METRICS_STEPS = 600;
     private static final String DEFAULT_UI_NAME = "Boreal Genomics";
 
-    private final int SIMULATION_STEPS = 25;
+    private static final int DEFAULT_SIMULATION_STEPS = 25;
+    //the fractions of a grid drawn from the command line; unlike the empty default grid, it has residents to move
+    private static final double OPTION_VACANT = 0.2;
+    private static final double OPTION_RED = 0.5;
+    //the largest grid whose cells still fit in one array
+    private static final int MAX_GRID_SIZE = 46340;
+    //the most frames of a running simulation drawn in a second
+    private static final int MAX_FRAMES_PER_SECOND = 30;
+    //the pauses after every simulated step to choose from with faster and slower, in milliseconds
+    private static final long[] STEP_DELAYS = {0, 10, 50, 200, 1000};
 
     private static final Color[] COLORS = {Color.RED, Color.BLUE, Color.WHITE};
 
     private RedBlueGrid rbgrid;
+    //the number of steps simulate takes at most, and the seed of every reset, or null to draw a new grid each time
+    private int simulationSteps;
+    private Long seed;
 
-    private final JButton[][] gridUI = new JButton[GRID_SIZE][GRID_SIZE];
+    private final GridCanvas canvas;
+    private final MetricsPanel metrics;
+
+    //runs simulate off the event dispatch thread, and how long it pauses after each step, as an index into STEP_DELAYS
+    private SimulationWorker worker;
+    private int speed = 0;
 
     /**
      * Create a new GridUI for an instance of Erehwon
      */
     public RedBlueGridUI() {
-        setLayout(new GridLayout(GRID_SIZE, GRID_SIZE));
-        setTitle(DEFAULT_UI_NAME);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(DEFAULT_WINDOW_WIDTH, DEFAULT_WINDOW_HEIGHT);
-
-        this.rbgrid = new RedBlueGrid(GRID_SIZE,
+        this(new RedBlueGrid(DEFAULT_GRID_SIZE,
             DEFAULT_NEIGHBORHOOD_DISTANCE,
             DEFAULT_VACANT,
             DEFAULT_RED,
-            DEFAULT_HAPPINESS_THRESHOLD);
-
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                JButton button = new JButton();
-                button.setBackground(rbgrid.getColor(row, col));
-                button.setOpaque(true);
-                button.setBorderPainted(false);
-                button.setBorder(BorderFactory.createLineBorder(Color.BLACK));
-                button.setActionCommand(row + "," + col);
-                button.addActionListener(new ActionListener() {
-                    @Override
-                    public void actionPerformed(ActionEvent e) {
-                        String command = e.getActionCommand();
-                        String[] posStr = command.split(",");
-                        int row = Integer.parseInt(posStr[0]);
-                        int col = Integer.parseInt(posStr[1]);
-                        rbgrid.shiftColor(row, col);
-                        button.setBackground(rbgrid.getColor(row, col));
-                    }
-                });
-                gridUI[row][col] = button;
-                add(button);
-            }
+            DEFAULT_HAPPINESS_THRESHOLD), DEFAULT_SIMULATION_STEPS, null);
+    }
+
+    /**
+     * Create a new GridUI for a given grid
+     * @param grid the grid to show, cannot be null
+     * @param simulationSteps the most steps simulate takes, >= 0
+     * @param seed the seed every reset starts from, or null to draw a different grid every time
+     */
+    public RedBlueGridUI(RedBlueGrid grid, int simulationSteps, Long seed) {
+        if (grid == null || simulationSteps < 0) {
+            throw new IllegalArgumentException("The grid cannot be null and the steps cannot be negative.");
         }
+        setLayout(new BorderLayout());
+        setTitle(DEFAULT_UI_NAME);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setSize(DEFAULT_WINDOW_WIDTH + METRICS_WIDTH, DEFAULT_WINDOW_HEIGHT);
+
+        this.rbgrid = grid;
+        this.simulationSteps = simulationSteps;
+        this.seed = seed;
+
+        //one component draws every cell and follows every change to rbgrid, and clicking a cell shifts its colour
+        this.canvas = new GridCanvas(rbgrid);
+        add(canvas, BorderLayout.CENTER);
+        //plots the happiness, moves and step time of the simulations the worker runs
+        this.metrics = new MetricsPanel(METRICS_STEPS);
+        metrics.setPreferredSize(new Dimension(METRICS_WIDTH, DEFAULT_WINDOW_HEIGHT));
+        add(metrics, BorderLayout.EAST);
+
+        this.worker = newWorker();
+
         // Create menu bar
         JMenuBar menuBar = new JMenuBar();
         setJMenuBar(menuBar);
@@ -78,11 +103,55 @@ public class RedBlueGridUI extends JFrame {
 
         // Add menu items
         addMenuItem(operationsMenu, "reset", e -> showResetDialog());
+        addMenuItem(operationsMenu, "open snapshot", e -> openSnapshot());
+        addMenuItem(operationsMenu, "save snapshot", e -> saveSnapshot());
         addMenuItem(operationsMenu, "simulate", e -> simulate());
         addMenuItem(operationsMenu, "one step", e -> oneStep());
+        addMenuItem(operationsMenu, "pause", e -> worker.pause());
+        addMenuItem(operationsMenu, "resume", e -> worker.resume());
+        addMenuItem(operationsMenu, "step while paused", e -> worker.step());
+        addMenuItem(operationsMenu, "faster", e -> changeSpeed(-1));
+        addMenuItem(operationsMenu, "slower", e -> changeSpeed(1));
+        addMenuItem(operationsMenu, "stop", e -> worker.stop());
         addMenuItem(operationsMenu, "exit", e -> exit());
     }
 
+    /**
+     * @return a worker for rbgrid at the current speed; while it runs the canvas shows its frames,
+     * and follows the grid again once it is done, and the metrics panel plots every step
+     */
+    private SimulationWorker newWorker() {
+        SimulationWorker newWorker = new SimulationWorker(rbgrid, canvas::showFrame,
+                result -> simulationFinished(result), MAX_FRAMES_PER_SECOND);
+        newWorker.setStepDelay(STEP_DELAYS[speed]);
+        newWorker.setStepListener(metrics);
+        return newWorker;
+    }
+
+    /**
+     * Follows the grid again once a simulation stops, however it stopped
+     * @param result what the simulation did, or null if it failed
+     */
+    private void simulationFinished(SimulationResult result) {
+        canvas.setFollowing(true);
+        if (result == null) {
+            JOptionPane.showMessageDialog(this, "The simulation failed; the error was printed to the console.",
+                    "simulate", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Shows another grid in place of rbgrid, in the same window. The canvas keeps its image if the size is the same.
+     * @param grid the new grid
+     */
+    private void rebuild(RedBlueGrid grid) {
+        worker.stop();
+        rbgrid = grid;
+        canvas.setGrid(grid);
+        metrics.clear();
+        worker = newWorker();
+    }
+
     private void addMenuItem(JMenu menu, String title, ActionListener actionListener) {
         JMenuItem menuItem = new JMenuItem(title);
         menuItem.addActionListener(actionListener);
@@ -91,8 +160,14 @@ public class RedBlueGridUI extends JFrame {
 
     private void showResetDialog() {
         JDialog resetDialog = new JDialog(this, "reset", true);
-        resetDialog.setLayout(new GridLayout(3, 1));
-        resetDialog.setSize(300, 150);
+        resetDialog.setLayout(new GridLayout(0, 3));
+        resetDialog.setSize(520, 300);
+
+        JSpinner sizeSpinner = new JSpinner(new SpinnerNumberModel(rbgrid.getSize(), 1, MAX_GRID_SIZE, 1));
+        JSpinner distanceSpinner = new JSpinner(
+                new SpinnerNumberModel(rbgrid.getNeighborhoodDistance(), 1, MAX_GRID_SIZE, 1));
+        JSpinner stepsSpinner = new JSpinner(new SpinnerNumberModel(simulationSteps, 0, Integer.MAX_VALUE, 1));
+        JTextField seedField = new JTextField(seed == null ? "" : seed.toString());
 
         JSlider whiteSlider = new JSlider(0, 100, 10);
         whiteSlider.setPaintLabels(true);
@@ -125,10 +200,31 @@ public class RedBlueGridUI extends JFrame {
 
         JButton applyButton = new JButton("apply");
         applyButton.addActionListener(e -> {
-            reset(colorSlider.getValue(), whiteSlider.getValue(), happinessSlider.getValue());
-            resetDialog.dispose();
+            String seedText = seedField.getText().trim();
+            try {
+                Long newSeed = seedText.isEmpty() ? null : Long.valueOf(seedText);
+                reset(colorSlider.getValue(), whiteSlider.getValue(), happinessSlider.getValue(),
+                        (Integer) sizeSpinner.getValue(), (Integer) distanceSpinner.getValue(), newSeed);
+                simulationSteps = (Integer) stepsSpinner.getValue();
+                resetDialog.dispose();
+            } catch (IllegalArgumentException ex) {
+                //also catches a seed that is not a number
+                JOptionPane.showMessageDialog(resetDialog, ex.getMessage(), "reset", JOptionPane.ERROR_MESSAGE);
+            }
         });
 
+        resetDialog.add(new JLabel("grid size:"));
+        resetDialog.add(sizeSpinner);
+        resetDialog.add(new JLabel(""));
+        resetDialog.add(new JLabel("neighbourhood distance:"));
+        resetDialog.add(distanceSpinner);
+        resetDialog.add(new JLabel(""));
+        resetDialog.add(new JLabel("steps per simulate:"));
+        resetDialog.add(stepsSpinner);
+        resetDialog.add(new JLabel(""));
+        resetDialog.add(new JLabel("seed (blank for random):"));
+        resetDialog.add(seedField);
+        resetDialog.add(new JLabel(""));
         resetDialog.add(new JLabel("% of empty squares:"));
         resetDialog.add(whiteSlider);
         resetDialog.add(selectedWhiteValueLabel);
@@ -143,22 +239,68 @@ public class RedBlueGridUI extends JFrame {
         resetDialog.setVisible(true);
     }
 
-    private void recolorUI() {
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                gridUI[row][col].setBackground(rbgrid.getColor(row, col));
+    /**
+     * Draws a new grid. A grid of the same size and neighbourhood distance is reset in place; otherwise a new grid
+     * is built and shown in the same window.
+     * @throws IllegalArgumentException if the parameters do not make a valid grid
+     */
+    private void reset(int redFraction, int whiteFraction, int happinessThreshold, int size, int distance,
+                       Long newSeed) {
+        double fractionVacant = (1.0 * whiteFraction) / 100;
+        double fractionRed = (1.0 * redFraction) / 100;
+        double threshold = (1.0 * happinessThreshold) / 100;
+        if (size == rbgrid.getSize() && distance == rbgrid.getNeighborhoodDistance()) {
+            worker.stop();
+            if (newSeed == null) {
+                rbgrid.reset(fractionVacant, fractionRed, threshold);
+            } else {
+                rbgrid.reset(fractionVacant, fractionRed, threshold, newSeed);
             }
+            metrics.clear();
+        } else {
+            rebuild(newSeed == null ? new RedBlueGrid(size, distance, fractionVacant, fractionRed, threshold)
+                    : new RedBlueGrid(size, distance, fractionVacant, fractionRed, threshold, newSeed));
+        }
+        seed = newSeed;
+    }
+
+    /**
+     * Asks for a snapshot file and shows the grid saved in it
+     */
+    private void openSnapshot() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            rebuild(GridSnapshot.load(chooser.getSelectedFile().toPath()));
+            //the seed of the last settings does not describe the grid loaded, so resets draw at random again
+            seed = null;
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "open snapshot", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private void reset(int redFraction, int whiteFraction, int happinessThreshold) {
-        rbgrid.reset((1.0 * whiteFraction) / 100, (1.0 * redFraction) / 100, (1.0 * happinessThreshold) / 100);
-        recolorUI();
+    /**
+     * Asks for a file and saves a snapshot of the grid in it
+     */
+    private void saveSnapshot() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        //the grid cannot be read while a simulation runs
+        worker.stop();
+        try {
+            GridSnapshot.save(rbgrid, chooser.getSelectedFile().toPath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "save snapshot", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
 //    private void simulate() {
 //        while (rbgrid.fractionHappy() != 1.0) {
-//            rbgrid.simulate(SIMULATION_STEPS);
+//            rbgrid.simulate(simulationSteps);
 //            recolorUI();
 //
 //            try {
@@ -170,18 +312,24 @@ public class RedBlueGridUI extends JFrame {
 //        }
 //    }
 
+    /**
+     * Starts simulating in the background, unless a simulation is already running
+     */
     private void simulate() {
-        Timer timer = new Timer(   50, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                rbgrid.simulate(SIMULATION_STEPS);
-                recolorUI();
-                ((Timer) e.getSource()).stop(); // Stop the timer when the condition is met
-
-            }
-        });
+        if (worker.isRunning()) {
+            return;
+        }
+        canvas.setFollowing(false);
+        worker.start(simulationSteps);
+    }
 
-        timer.start();
+    /**
+     * Moves the pause after every simulated step along STEP_DELAYS
+     * @param change -1 for a shorter pause, 1 for a longer one
+     */
+    private void changeSpeed(int change) {
+        speed = Math.max(0, Math.min(STEP_DELAYS.length - 1, speed + change));
+        worker.setStepDelay(STEP_DELAYS[speed]);
     }
 
     private void simulate1() {
@@ -191,8 +339,7 @@ public class RedBlueGridUI extends JFrame {
                 if (rbgrid.fractionHappy() >= 1.0) {
                     ((Timer) e.getSource()).stop(); // Stop the timer when the condition is met
                 } else {
-                    rbgrid.simulate(SIMULATION_STEPS);
-                    recolorUI();
+                    rbgrid.simulate(simulationSteps);
                 }
             }
         });
@@ -202,8 +349,8 @@ public class RedBlueGridUI extends JFrame {
 
 
     private void oneStep() {
+        worker.stop();
         rbgrid.oneTimeStep();
-        recolorUI();
     }
 
 
@@ -212,8 +359,8 @@ public class RedBlueGridUI extends JFrame {
 
 
         // Clear the grid
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
+        for (int row = 0; row < rbgrid.getSize(); row++) {
+            for (int col = 0; col < rbgrid.getSize(); col++) {
                 rbgrid.setColor(row, col, Color.WHITE);
             }
         }
@@ -334,8 +481,7 @@ public class RedBlueGridUI extends JFrame {
 //        drawPixels(rbgrid, pixelsE, startX + 10, startY, Color.RED);
 //        drawPixels(rbgrid, pixelsN, startX + 15, startY, Color.BLUE);
 
-        // Update the UI
-        recolorUI();
+        // the canvas is told about every cell that was set
 
 //        Timer timer = new Timer(   150, new ActionListener() {
 //            @Override
@@ -343,7 +489,7 @@ public class RedBlueGridUI extends JFrame {
 //                if (rbgrid.fractionHappy() == 1.0) {
 //                    ((Timer) e.getSource()).stop(); // Stop the timer when the condition is met
 //                } else {
-//                    rbgrid.simulate(SIMULATION_STEPS);
+//                    rbgrid.simulate(simulationSteps);
 //                    recolorUI();
 //                }
 //            }
@@ -375,11 +521,110 @@ public class RedBlueGridUI extends JFrame {
         System.exit(0);
     }
 
+    /**
+     * What the command line asks for; see main
+     */
+    static final class Options {
+        int size = DEFAULT_GRID_SIZE;
+        int distance = DEFAULT_NEIGHBORHOOD_DISTANCE;
+        int steps = DEFAULT_SIMULATION_STEPS;
+        double vacant = OPTION_VACANT;
+        double red = OPTION_RED;
+        double threshold = DEFAULT_HAPPINESS_THRESHOLD;
+        Long seed;
+        Path snapshot;
+
+        /**
+         * @param args pairs of an option and its value
+         * @throws IllegalArgumentException if an option is unknown, has no value or a value is not a valid number
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            if (args.length % 2 != 0) {
+                throw new IllegalArgumentException("Every option needs a value.");
+            }
+            for (int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--size":
+                        options.size = Integer.parseInt(value);
+                        break;
+                    case "--distance":
+                        options.distance = Integer.parseInt(value);
+                        break;
+                    case "--steps":
+                        options.steps = Integer.parseInt(value);
+                        break;
+                    case "--vacant":
+                        options.vacant = Double.parseDouble(value);
+                        break;
+                    case "--red":
+                        options.red = Double.parseDouble(value);
+                        break;
+                    case "--threshold":
+                        options.threshold = Double.parseDouble(value);
+                        break;
+                    case "--seed":
+                        options.seed = Long.valueOf(value);
+                        break;
+                    case "--snapshot":
+                        options.snapshot = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+                }
+            }
+            if (options.size < 1 || options.size > MAX_GRID_SIZE || options.distance < 1 || options.steps < 0) {
+                throw new IllegalArgumentException("The size must be between 1 and " + MAX_GRID_SIZE
+                        + ", the distance at least 1 and the steps at least 0.");
+            }
+            if (!isFraction(options.vacant) || !isFraction(options.red) || !isFraction(options.threshold)) {
+                throw new IllegalArgumentException("The vacant and red fractions and the threshold must be between"
+                        + " 0 and 1.");
+            }
+            return options;
+        }
+
+        private static boolean isFraction(double value) {
+            return value >= 0 && value <= 1;
+        }
+
+        /**
+         * @return the snapshot if there is one, otherwise a new grid drawn with the given fractions
+         */
+        RedBlueGrid grid() throws IOException {
+            if (snapshot != null) {
+                return GridSnapshot.load(snapshot);
+            }
+            return seed == null
+                    ? new RedBlueGrid(size, distance, vacant, red, threshold)
+                    : new RedBlueGrid(size, distance, vacant, red, threshold, seed);
+        }
+    }
+
+    /**
+     * Opens the window
+     * @param args optionally --size n, --distance d, --steps s and --seed x for the first grid and every reset,
+     *             --vacant f, --red f and --threshold f for the first grid, or --snapshot file to open a grid
+     *             saved by GridSnapshot
+     */
     public static void main(String[] args) {
+        Options options;
+        RedBlueGrid grid;
+        try {
+            options = Options.parse(args);
+            grid = options.grid();
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java erehwon.RedBlueGridUI [--size n] [--distance d] [--steps s] [--seed x]"
+                    + " [--vacant f] [--red f] [--threshold f] [--snapshot file]");
+            System.exit(2);
+            return;
+        }
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new RedBlueGridUI().setVisible(true);
+                new RedBlueGridUI(grid, options.steps, options.seed).setVisible(true);
             }
         });
     }
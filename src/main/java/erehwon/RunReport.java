@@ -0,0 +1,70 @@
+package erehwon;
+
+/**
+ * What became of one run submitted to a SimulationService
+ */
+public final class RunReport {
+
+    /**
+     * How a run ended
+     */
+    public enum Status {
+        //the simulation ran until it converged, stalled or used up its steps
+        COMPLETED,
+        //the simulation was stopped after the service's per-run timeout; the result covers the steps it took
+        TIMED_OUT,
+        //the scope was cancelled; the result covers the steps taken, or is null if the run never started
+        CANCELLED,
+        //building or simulating the grid threw; see getFailure
+        FAILED
+    }
+
+    private final SweepSpec.Run run;
+    private final Status status;
+    private final SimulationResult result;
+    private final Throwable failure;
+    private final long elapsedNanos;
+
+    RunReport(SweepSpec.Run run, Status status, SimulationResult result, Throwable failure, long elapsedNanos) {
+        this.run = run;
+        this.status = status;
+        this.result = result;
+        this.failure = failure;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public SweepSpec.Run getRun() {
+        return run;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the result of the simulation, or null if it failed or never started
+     */
+    public SimulationResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return what the run threw if it FAILED, otherwise null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the time from the start of the run to its end, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RunReport{seed=" + run.getSeed() + ", status=" + status + ", result=" + result
+                + ", elapsedNanos=" + elapsedNanos + "}";
+    }
+}
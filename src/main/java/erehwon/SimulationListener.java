@@ -0,0 +1,27 @@
+package erehwon;
+
+/**
+ * Told about the progress of RedBlueGrid.simulate, one call per time step and one when it stops.
+ * Listeners are called on the thread running the simulation and should return quickly.
+ */
+public interface SimulationListener {
+
+    /**
+     * A listener that ignores everything. simulate checks for it and skips building the
+     * statistics altogether, so it is free to leave in place.
+     */
+    SimulationListener NO_OP = stats -> { };
+
+    /**
+     * Called after every time step of a simulation
+     * @param stats what the step did, will not be null
+     */
+    void onStep(StepStats stats);
+
+    /**
+     * Called once when a simulation stops
+     * @param result the result simulate is about to return, will not be null
+     */
+    default void onFinish(SimulationResult result) {
+    }
+}
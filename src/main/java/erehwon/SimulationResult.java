@@ -0,0 +1,68 @@
+package erehwon;
+
+/**
+ * What a call to RedBlueGrid.simulate did: how many time steps it took, why it stopped,
+ * and how happy Erehwon was when it stopped.
+ */
+public final class SimulationResult {
+
+    /**
+     * Why a simulation stopped
+     */
+    public enum Outcome {
+        //every resident is happy
+        CONVERGED,
+        //the number of unhappy residents stopped going down and shaking the grid did not help
+        STALLED,
+        //the simulation used up its time steps before converging or running out of patience;
+        //the last steps may have been stalling
+        LIMIT,
+        //the thread running the simulation was interrupted; the grid is as it was after the last whole step
+        INTERRUPTED
+    }
+
+    private final int steps;
+    private final Outcome outcome;
+    private final HappinessCensus census;
+
+    /**
+     * @param steps the number of time steps taken, >= 0
+     * @param outcome why the simulation stopped, cannot be null
+     * @param census the census of the grid when it stopped, cannot be null
+     */
+    public SimulationResult(int steps, Outcome outcome, HappinessCensus census) {
+        if (outcome == null || census == null) {
+            throw new IllegalArgumentException("The outcome and census cannot be null.");
+        }
+        this.steps = steps;
+        this.outcome = outcome;
+        this.census = census;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public HappinessCensus getCensus() {
+        return census;
+    }
+
+    /**
+     * @return the fraction of residents that were happy when the simulation stopped,
+     * or 1 if there were no residents at all
+     */
+    public double getFractionHappy() {
+        long residents = census.getHappy() + census.getUnhappy();
+        return residents == 0 ? 1.0 : (double) census.getHappy() / residents;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationResult{steps=" + steps + ", outcome=" + outcome + ", happy=" + census.getHappy()
+                + ", unhappy=" + census.getUnhappy() + "}";
+    }
+}
@@ -0,0 +1,407 @@
+package erehwon;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs large numbers of small, independent simulations concurrently, one task per run.
+ *
+ * On a JDK with virtual threads every run gets its own virtual thread; the service looks the executor up
+ * when it is built, so the code still runs on older JDKs, where it falls back to a fixed pool with one
+ * platform thread per processor. usesVirtualThreads tells which one it got.
+ *
+ * Runs are submitted to a Scope, which owns them in the way a structured task scope would: close waits
+ * for every run of the scope to end, the first failure cancels the rest, and cancel interrupts the runs
+ * still going. An interrupted run stops after its current step (see RedBlueGrid.simulate) and is still
+ * reported. Runs can also be given a timeout, after which they are interrupted the same way.
+ *
+ * Reports are handed to the scope's sink one at a time on a single thread, so the sink does not need to be
+ * thread-safe. A scope allows at most maxInFlight runs that have been submitted but whose report has not yet
+ * been through the sink; submit blocks once there are that many. However many runs are submitted, only that
+ * many grids and reports exist at once, and a slow sink slows down submission instead of filling memory.
+ */
+public final class SimulationService implements AutoCloseable {
+    //put on a scope's report queue by close to stop its sink thread
+    private static final RunReport END = new RunReport(null, null, null, null, 0);
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ScheduledThreadPoolExecutor timer;
+    private final int maxInFlight;
+    //the per-run timeout, or 0 for none
+    private final long timeoutNanos;
+    //the scopes opened and not closed yet, and whether the service is closed; guarded by openScopes
+    private final Set<Scope> openScopes = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * @param maxInFlight the most runs of one scope that can be submitted and not yet through the sink, >= 1
+     * @param timeout how long a run may take before it is interrupted, or null for no limit
+     * @throws IllegalArgumentException if maxInFlight < 1 or timeout is not positive
+     */
+    public SimulationService(int maxInFlight, Duration timeout) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        }
+        if (timeout != null && (timeout.isNegative() || timeout.isZero())) {
+            throw new IllegalArgumentException("The timeout must be positive.");
+        }
+        this.maxInFlight = maxInFlight;
+        this.timeoutNanos = timeout == null ? 0 : timeout.toNanos();
+
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemon("erehwon-run"));
+        this.timer = new ScheduledThreadPoolExecutor(1, daemon("erehwon-timeout"));
+        //most runs finish in time, so drop their timeouts at once rather than keep them until they expire
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() if this JDK has it, otherwise null
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return whether runs get a virtual thread each, rather than sharing a pool of platform threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Opens a scope whose reports go to the given sink
+     * @param sink told about every run of the scope once it ends, on one thread, cannot be null
+     * @return the scope; close it to wait for its runs
+     * @throws IllegalStateException if the service is closed
+     */
+    public Scope open(Consumer<RunReport> sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("The sink cannot be null.");
+        }
+        synchronized (openScopes) {
+            if (closed) {
+                throw new IllegalStateException("The service is closed.");
+            }
+            Scope scope = new Scope(sink);
+            openScopes.add(scope);
+            return scope;
+        }
+    }
+
+    /**
+     * Stops accepting runs. Every scope still open is closed first, which cancels its runs and waits for their
+     * reports, so that no run is left going without its timeout.
+     */
+    @Override
+    public void close() {
+        List<Scope> scopes;
+        synchronized (openScopes) {
+            closed = true;
+            scopes = new ArrayList<>(openScopes);
+        }
+        for (Scope scope : scopes) {
+            scope.close();
+        }
+        executor.shutdown();
+        timer.shutdownNow();
+    }
+
+    /**
+     * A group of runs that end together; see SimulationService
+     */
+    public final class Scope implements AutoCloseable {
+        private final Consumer<RunReport> sink;
+        private final Semaphore permits = new Semaphore(maxInFlight);
+        private final BlockingQueue<RunReport> reports = new LinkedBlockingQueue<>();
+        private final Set<RunState> running = ConcurrentHashMap.newKeySet();
+        private final Thread sinkThread;
+        //the runs submitted whose report has not been through the sink yet, guarded by itself
+        private final long[] pending = new long[1];
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+        private boolean sinkFailed;
+        //set by close under the pending lock, read by submit, possibly on other threads
+        private volatile boolean closed;
+
+        private Scope(Consumer<RunReport> sink) {
+            this.sink = sink;
+            this.sinkThread = daemon("erehwon-sink").newThread(this::drain);
+            sinkThread.start();
+        }
+
+        /**
+         * Starts a run, first waiting until the scope has fewer than maxInFlight runs in flight
+         * @param run the parameters of the grid, cannot be null
+         * @param steps the maximum number of steps to simulate, >= 0
+         * @throws InterruptedException if the calling thread is interrupted while waiting
+         * @throws CancellationException if the scope was cancelled or a run failed
+         * @throws IllegalStateException if the scope or the service is closed
+         */
+        public void submit(SweepSpec.Run run, int steps) throws InterruptedException {
+            if (run == null || steps < 0) {
+                throw new IllegalArgumentException("The run cannot be null and steps cannot be negative.");
+            }
+            checkOpen();
+            permits.acquire();
+            //close must either see this run in pending and wait for it, or this run must see that it is closed
+            synchronized (pending) {
+                try {
+                    checkOpen();
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+                pending[0]++;
+            }
+            try {
+                executor.execute(() -> execute(run, steps));
+            } catch (RejectedExecutionException e) {
+                settle();
+                throw new IllegalStateException("The service is closed.", e);
+            }
+        }
+
+        /**
+         * @throws IllegalStateException if the scope is closed
+         * @throws CancellationException if the scope was cancelled
+         */
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("The scope is closed.");
+            }
+            if (cancelled) {
+                throw new CancellationException("The scope was cancelled.");
+            }
+        }
+
+        /**
+         * Runs one simulation on the current thread and queues its report
+         */
+        private void execute(SweepSpec.Run run, int steps) {
+            if (cancelled) {
+                reports.add(new RunReport(run, RunReport.Status.CANCELLED, null, null, 0));
+                return;
+            }
+            long start = System.nanoTime();
+            RunState state = new RunState(Thread.currentThread());
+            running.add(state);
+            //cancel may have gone through running just before this run was added
+            if (cancelled) {
+                state.interrupt(false);
+            }
+            ScheduledFuture<?> deadline = timeoutNanos == 0 ? null
+                    : timer.schedule(() -> state.interrupt(true), timeoutNanos, TimeUnit.NANOSECONDS);
+
+            RunReport report;
+            try {
+                RedBlueGrid grid = new RedBlueGrid(run.getSize(), run.getDistance(), run.getFractionVacant(),
+                        run.getFractionRed(), run.getHappinessThreshold(), run.getSeed());
+                SimulationResult result = grid.simulate(steps);
+                report = new RunReport(run, state.status(result), result, null, System.nanoTime() - start);
+            } catch (RuntimeException | Error e) {
+                report = new RunReport(run, RunReport.Status.FAILED, null, e, System.nanoTime() - start);
+            } finally {
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
+                running.remove(state);
+                state.finish();
+            }
+            reports.add(report);
+        }
+
+        /**
+         * Hands reports to the sink until close queues END
+         */
+        private void drain() {
+            while (true) {
+                RunReport report;
+                try {
+                    report = reports.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (report == END) {
+                    return;
+                }
+                try {
+                    if (!sinkFailed) {
+                        try {
+                            sink.accept(report);
+                        } catch (RuntimeException | Error e) {
+                            sinkFailed = true;
+                            fail(e);
+                        }
+                    }
+                    if (report.getStatus() == RunReport.Status.FAILED) {
+                        fail(report.getFailure());
+                    }
+                } finally {
+                    //join and close wait for every report to be settled, whatever happened to it
+                    settle();
+                }
+            }
+        }
+
+        /**
+         * Counts one run as done with and lets another one in
+         */
+        private void settle() {
+            permits.release();
+            synchronized (pending) {
+                if (--pending[0] == 0) {
+                    pending.notifyAll();
+                }
+            }
+        }
+
+        private void fail(Throwable cause) {
+            synchronized (pending) {
+                if (failure == null) {
+                    failure = cause;
+                }
+            }
+            cancel();
+        }
+
+        /**
+         * Interrupts every run of the scope still going and marks those not started yet as cancelled.
+         * Their reports still go to the sink. Later calls to submit throw CancellationException.
+         */
+        public void cancel() {
+            cancelled = true;
+            for (RunState state : running) {
+                state.interrupt(false);
+            }
+        }
+
+        /**
+         * @return whether cancel was called or a run failed
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Waits until every run submitted so far has ended and been through the sink
+         * @throws InterruptedException if the calling thread is interrupted while waiting
+         * @throws ExecutionException if a run or the sink threw; the scope was cancelled because of it
+         */
+        public void join() throws InterruptedException, ExecutionException {
+            synchronized (pending) {
+                while (pending[0] > 0) {
+                    pending.wait();
+                }
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+        }
+
+        /**
+         * Cancels the runs still going, waits for every report to go through the sink and stops the
+         * sink's thread. Call join first to wait for the runs instead of cancelling them.
+         */
+        @Override
+        public void close() {
+            boolean interrupted = false;
+            synchronized (pending) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (pending[0] > 0) {
+                    cancel();
+                }
+                while (pending[0] > 0) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            reports.add(END);
+            try {
+                sinkThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            synchronized (openScopes) {
+                openScopes.remove(this);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The thread running one simulation, and whether it was interrupted to time it out or to cancel it.
+     * The lock makes sure no interrupt reaches the thread once the run has finished with it.
+     */
+    private static final class RunState {
+        private final Thread thread;
+        private boolean finished;
+        private boolean timedOut;
+
+        RunState(Thread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void interrupt(boolean timeout) {
+            if (!finished) {
+                timedOut |= timeout;
+                thread.interrupt();
+            }
+        }
+
+        synchronized RunReport.Status status(SimulationResult result) {
+            if (result.getOutcome() != SimulationResult.Outcome.INTERRUPTED) {
+                return RunReport.Status.COMPLETED;
+            }
+            return timedOut ? RunReport.Status.TIMED_OUT : RunReport.Status.CANCELLED;
+        }
+
+        /**
+         * Called on the run's own thread when it is done, clearing any interrupt meant for the run
+         */
+        synchronized void finish() {
+            finished = true;
+            Thread.interrupted();
+        }
+    }
+}
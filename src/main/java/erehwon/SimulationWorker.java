@@ -0,0 +1,287 @@
+package erehwon;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs RedBlueGrid.simulate on a background thread for a user interface, so that the event dispatch thread
+ * stays free and the simulation can be watched while it runs.
+ *
+ * After a step the worker copies the cells into a Frame and hands it to the frame consumer on the event
+ * dispatch thread, at most maxFramesPerSecond times a second. There are two frame buffers: the worker fills
+ * one while the consumer reads the other, and a step that comes while the consumer has not yet taken the
+ * last frame publishes nothing, so a slow display drops frames instead of slowing the simulation down.
+ *
+ * The simulation can be paused, advanced a step at a time while paused, slowed down with a delay between
+ * steps, and stopped. A step listener sees the statistics of every step, frame or not. While it runs the
+ * worker owns the grid: nothing else may read or change it until the finish consumer has been called.
+ */
+public final class SimulationWorker {
+    private final RedBlueGrid grid;
+    private final Consumer<Frame> frames;
+    private final Consumer<SimulationResult> finished;
+    private final long frameIntervalNanos;
+
+    //the two frame buffers; back is the one the worker fills next
+    private Frame back;
+    private Frame spare;
+    //the frame published and not yet taken by the event dispatch thread, or null
+    private final AtomicReference<Frame> published = new AtomicReference<>();
+    private long lastFrameNanos;
+
+    private Thread thread;
+    //guarded by this
+    private boolean paused;
+    private int stepsAllowed;
+    private volatile long stepDelayMillis;
+    //also told about every step, on the worker thread
+    private volatile SimulationListener stepListener = SimulationListener.NO_OP;
+
+    /**
+     * An immutable picture of the grid after a step. The consumer must be done with it when it returns,
+     * as the worker writes the next frame but one into the same buffer.
+     */
+    public static final class Frame {
+        private final int size;
+        private final byte[] cells;
+        private StepStats stats;
+
+        private Frame(int size) {
+            this.size = size;
+            this.cells = new byte[size * size];
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the statistics of the step the frame shows
+         */
+        public StepStats getStats() {
+            return stats;
+        }
+
+        /**
+         * @return the colour of a cell, as RedBlueGrid.getColor
+         */
+        public Color getColor(int row, int col) {
+            if (row < 0 || row >= size || col < 0 || col >= size) {
+                throw new IllegalArgumentException("The row and column must be within the grid.");
+            }
+            return CellState.toColor(cells[row * size + col]);
+        }
+
+        /**
+         * @return the cells, row-major, for GridCanvas to copy; they must not be written
+         */
+        byte[] cells() {
+            return cells;
+        }
+    }
+
+    /**
+     * @param grid the grid to simulate, cannot be null
+     * @param frames given frames of the running simulation on the event dispatch thread, cannot be null
+     * @param finished given the result on the event dispatch thread once a simulation stops, or null if simulate
+     *                 or the step listener threw; cannot be null
+     * @param maxFramesPerSecond the most frames to publish in a second, >= 1
+     */
+    public SimulationWorker(RedBlueGrid grid, Consumer<Frame> frames, Consumer<SimulationResult> finished,
+                            int maxFramesPerSecond) {
+        if (grid == null || frames == null || finished == null) {
+            throw new IllegalArgumentException("The grid and consumers cannot be null.");
+        }
+        if (maxFramesPerSecond < 1) {
+            throw new IllegalArgumentException("maxFramesPerSecond must be at least 1.");
+        }
+        this.grid = grid;
+        this.frames = frames;
+        this.finished = finished;
+        this.frameIntervalNanos = 1_000_000_000L / maxFramesPerSecond;
+    }
+
+    /**
+     * Starts simulating on a new thread, unless a simulation is already running
+     * @param numSteps the maximum number of time steps, >= 0
+     * @return false if a simulation was already running
+     */
+    public synchronized boolean start(int numSteps) {
+        if (numSteps < 0) {
+            throw new IllegalArgumentException("The number of steps cannot be negative.");
+        }
+        if (isRunning()) {
+            return false;
+        }
+        int size = grid.getSize();
+        if (back == null || back.size != size) {
+            back = new Frame(size);
+            spare = new Frame(size);
+        }
+        published.set(null);
+        lastFrameNanos = 0;
+        stepsAllowed = 0;
+        thread = new Thread(() -> run(numSteps), "erehwon-simulation");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void run(int numSteps) {
+        SimulationResult result = null;
+        grid.setSimulationListener(this::stepDone);
+        try {
+            result = grid.simulate(numSteps);
+        } finally {
+            grid.setSimulationListener(SimulationListener.NO_OP);
+            //the consumer hears about a failure too; the failure itself goes on to the thread's uncaught
+            //exception handler, which prints it
+            SimulationResult outcome = result;
+            SwingUtilities.invokeLater(() -> finished.accept(outcome));
+        }
+    }
+
+    /**
+     * Called by simulate on the worker thread after every step: publishes a frame if one is due,
+     * then waits while paused and sleeps for the step delay
+     */
+    private void stepDone(StepStats stats) {
+        stepListener.onStep(stats);
+        long now = System.nanoTime();
+        if (now - lastFrameNanos >= frameIntervalNanos && published.get() == null) {
+            lastFrameNanos = now;
+            Frame frame = back;
+            System.arraycopy(grid.cells(), 0, frame.cells, 0, frame.cells.length);
+            frame.stats = stats;
+            back = spare;
+            spare = frame;
+            published.set(frame);
+            SwingUtilities.invokeLater(this::deliver);
+        }
+
+        try {
+            synchronized (this) {
+                while (paused && stepsAllowed == 0) {
+                    wait();
+                }
+                if (stepsAllowed > 0) {
+                    stepsAllowed--;
+                }
+            }
+            long delay = stepDelayMillis;
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            //simulate sees the interrupt before its next step and stops
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands the published frame to the consumer, on the event dispatch thread
+     */
+    private void deliver() {
+        Frame frame = published.get();
+        if (frame != null) {
+            try {
+                frames.accept(frame);
+            } finally {
+                //only now may the worker publish again; it fills the other buffer, and this one only once
+                //the next frame has been taken in turn
+                published.set(null);
+            }
+        }
+    }
+
+    /**
+     * Sets the listener told about every step of the simulations run, as RedBlueGrid.setSimulationListener.
+     * It is called on the worker thread and holds the simulation up for as long as it takes.
+     * @param listener the listener, or null for none
+     */
+    public void setStepListener(SimulationListener listener) {
+        stepListener = listener == null ? SimulationListener.NO_OP : listener;
+    }
+
+    /**
+     * Holds the simulation after the step in progress, until resume or step
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Lets a paused simulation carry on
+     */
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Lets a paused simulation take one more step
+     */
+    public synchronized void step() {
+        if (paused) {
+            stepsAllowed++;
+            notifyAll();
+        }
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Slows the simulation down
+     * @param millis how long to wait after every step, in milliseconds, >= 0; 0 runs at full speed
+     */
+    public void setStepDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The delay cannot be negative.");
+        }
+        stepDelayMillis = millis;
+    }
+
+    public long getStepDelay() {
+        return stepDelayMillis;
+    }
+
+    /**
+     * @return whether a simulation is running, paused or not
+     */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Stops the simulation after the step in progress and waits for the worker thread to end. The finish
+     * consumer is still called, with the outcome INTERRUPTED. Does nothing if no simulation is running.
+     */
+    public void stop() {
+        Thread running;
+        synchronized (this) {
+            running = thread;
+            if (running == null) {
+                return;
+            }
+            //interrupt before waking a paused worker, so that it cannot take another step first
+            running.interrupt();
+            paused = false;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (running.isAlive()) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package erehwon;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * The SplitMix64 generator: a 64-bit counter advanced by a fixed odd gamma and passed through
+ * a mixing function. RedBlueGrid uses it whenever it is given a seed, so that a seed always
+ * produces the same stream of numbers, independent of the JDK's own generators.
+ */
+final class SplitMix64 implements RandomGenerator {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    /**
+     * @param seed any long; equal seeds give equal streams
+     */
+    SplitMix64(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * @return the current state; a SplitMix64 built with it as the seed continues exactly where this one is
+     */
+    long state() {
+        return state;
+    }
+
+    @Override
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,75 @@
+package erehwon;
+
+/**
+ * What one time step of RedBlueGrid.simulate did: how many residents moved, how happy each
+ * colour was afterwards and how long the step took.
+ */
+public final class StepStats {
+    private final int step;
+    private final int moves;
+    private final HappinessCensus census;
+    private final long elapsedNanos;
+
+    /**
+     * @param step the number of the step, counting from 1
+     * @param moves the number of residents that moved during the step, >= 0
+     * @param census the census of the grid after the step, cannot be null
+     * @param elapsedNanos how long the step took, in nanoseconds
+     */
+    public StepStats(int step, int moves, HappinessCensus census, long elapsedNanos) {
+        if (census == null) {
+            throw new IllegalArgumentException("The census cannot be null.");
+        }
+        this.step = step;
+        this.moves = moves;
+        this.census = census;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    public HappinessCensus getCensus() {
+        return census;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the fraction of red residents that are happy, or 1 if there are none
+     */
+    public double getFractionHappyRed() {
+        return fraction(census.getHappyRed(), census.getUnhappyRed());
+    }
+
+    /**
+     * @return the fraction of blue residents that are happy, or 1 if there are none
+     */
+    public double getFractionHappyBlue() {
+        return fraction(census.getHappyBlue(), census.getUnhappyBlue());
+    }
+
+    /**
+     * @return the fraction of all residents that are happy, or 1 if there are none
+     */
+    public double getFractionHappy() {
+        return fraction(census.getHappy(), census.getUnhappy());
+    }
+
+    private static double fraction(long happy, long unhappy) {
+        return happy + unhappy == 0 ? 1.0 : (double) happy / (happy + unhappy);
+    }
+
+    @Override
+    public String toString() {
+        return "StepStats{step=" + step + ", moves=" + moves + ", happyRed=" + getFractionHappyRed()
+                + ", happyBlue=" + getFractionHappyBlue() + ", elapsedNanos=" + elapsedNanos + "}";
+    }
+}
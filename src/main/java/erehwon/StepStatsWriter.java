@@ -0,0 +1,129 @@
+package erehwon;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A SimulationListener that writes one line per time step, as CSV or as JSON lines, for looking at offline.
+ * Output is buffered and only flushed when a simulation finishes or the writer is closed, so a step
+ * costs a few appends to a buffer rather than a write to the console or a file.
+ *
+ * Every line has the step, the moves, the happy and unhappy residents of each colour, the fraction of
+ * each colour that is happy and the nanoseconds the step took. A writer can be shared by several
+ * simulations in a row on one thread; their lines simply follow each other.
+ */
+public final class StepStatsWriter implements SimulationListener, Closeable {
+
+    /**
+     * The line formats a StepStatsWriter can write
+     */
+    public enum Format {
+        //comma separated values with a header line
+        CSV,
+        //one JSON object per line
+        JSONL
+    }
+
+    private static final String CSV_HEADER =
+            "step,moves,happyRed,unhappyRed,happyBlue,unhappyBlue,fractionHappyRed,fractionHappyBlue,elapsedNanos";
+
+    private final Writer out;
+    private final Format format;
+    //reused for every line so that a step does not allocate a builder
+    private final StringBuilder line = new StringBuilder(160);
+
+    /**
+     * Creates a writer that appends lines to out, writing the CSV header first if there is one
+     * @param out where to write, cannot be null. It is wrapped in a BufferedWriter and closed by close.
+     * @param format the line format, cannot be null
+     * @throws IllegalArgumentException if out or format is null
+     * @throws UncheckedIOException if the header cannot be written
+     */
+    public StepStatsWriter(Writer out, Format format) {
+        if (out == null || format == null) {
+            throw new IllegalArgumentException("The writer and format cannot be null.");
+        }
+        this.out = new BufferedWriter(out, 1 << 16);
+        this.format = format;
+        if (format == Format.CSV) {
+            write(CSV_HEADER);
+        }
+    }
+
+    /**
+     * Creates a writer that writes UTF-8 lines to a new file, replacing any file already there
+     * @param file the file to write, cannot be null
+     * @param format the line format, cannot be null
+     * @return the writer; close it when done
+     * @throws IOException if the file cannot be opened
+     */
+    public static StepStatsWriter open(Path file, Format format) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The file cannot be null.");
+        }
+        return new StepStatsWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), format);
+    }
+
+    @Override
+    public void onStep(StepStats stats) {
+        HappinessCensus census = stats.getCensus();
+        line.setLength(0);
+        if (format == Format.CSV) {
+            line.append(stats.getStep()).append(',')
+                    .append(stats.getMoves()).append(',')
+                    .append(census.getHappyRed()).append(',')
+                    .append(census.getUnhappyRed()).append(',')
+                    .append(census.getHappyBlue()).append(',')
+                    .append(census.getUnhappyBlue()).append(',')
+                    .append(stats.getFractionHappyRed()).append(',')
+                    .append(stats.getFractionHappyBlue()).append(',')
+                    .append(stats.getElapsedNanos());
+        } else {
+            line.append("{\"step\":").append(stats.getStep())
+                    .append(",\"moves\":").append(stats.getMoves())
+                    .append(",\"happyRed\":").append(census.getHappyRed())
+                    .append(",\"unhappyRed\":").append(census.getUnhappyRed())
+                    .append(",\"happyBlue\":").append(census.getHappyBlue())
+                    .append(",\"unhappyBlue\":").append(census.getUnhappyBlue())
+                    .append(",\"fractionHappyRed\":").append(stats.getFractionHappyRed())
+                    .append(",\"fractionHappyBlue\":").append(stats.getFractionHappyBlue())
+                    .append(",\"elapsedNanos\":").append(stats.getElapsedNanos())
+                    .append('}');
+        }
+        write(line);
+    }
+
+    /**
+     * Flushes the lines of the finished simulation
+     */
+    @Override
+    public void onFinish(SimulationResult result) {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text).append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes and closes the underlying writer
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
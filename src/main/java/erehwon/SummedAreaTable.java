@@ -0,0 +1,113 @@
+package erehwon;
+
+/**
+ * A HappinessEngine over 2D prefix sums (an integral image) of the red and blue residents.
+ *
+ * sums[(row + 1) * (size + 1) + (col + 1)] holds the number of residents in the rectangle from
+ * (0, 0) to (row, col) inclusive, so the count in any clipped window takes four reads regardless
+ * of neighborhoodDistance. The tables are rebuilt lazily: a change to a cell only marks them
+ * stale, and the next call to prepare rebuilds them. Until then windows are counted directly
+ * from the cells so that results never depend on when the tables were last built.
+ */
+final class SummedAreaTable implements HappinessEngine {
+    private final int size;
+    private final int neighborhoodDistance;
+    //the grid's cells, shared with RedBlueGrid and never written here
+    private final byte[] cells;
+    private final int[] redSums;
+    private final int[] blueSums;
+    private boolean stale = true;
+
+    /**
+     * Creates the tables for the given grid. They are built on the first call to prepare.
+     * @param size the length of one side of the grid, size >= 1
+     * @param neighborhoodDistance the neighbourhood distance of the grid, >= 1
+     * @param cells the row-major cell array of the grid, of length size * size
+     */
+    SummedAreaTable(int size, int neighborhoodDistance, byte[] cells) {
+        this.size = size;
+        this.neighborhoodDistance = neighborhoodDistance;
+        this.cells = cells;
+        this.redSums = new int[(size + 1) * (size + 1)];
+        this.blueSums = new int[(size + 1) * (size + 1)];
+    }
+
+    @Override
+    public void rebuild() {
+        stale = true;
+    }
+
+    @Override
+    public void cellChanged(int index, byte from, byte to) {
+        stale = true;
+    }
+
+    @Override
+    public void prepare() {
+        if (!stale) {
+            return;
+        }
+
+        int stride = size + 1;
+        for (int row = 0; row < size; row++) {
+            int redRow = 0;
+            int blueRow = 0;
+            for (int col = 0; col < size; col++) {
+                byte state = cells[row * size + col];
+                if (state == CellState.RED) {
+                    redRow++;
+                } else if (state == CellState.BLUE) {
+                    blueRow++;
+                }
+                int sumIndex = (row + 1) * stride + col + 1;
+                redSums[sumIndex] = redSums[sumIndex - stride] + redRow;
+                blueSums[sumIndex] = blueSums[sumIndex - stride] + blueRow;
+            }
+        }
+        stale = false;
+    }
+
+    @Override
+    public int windowCount(int row, int col, byte state) {
+        int[] sums;
+        if (state == CellState.RED) {
+            sums = redSums;
+        } else if (state == CellState.BLUE) {
+            sums = blueSums;
+        } else {
+            return 0;
+        }
+
+        int rowStart = Math.max(row - neighborhoodDistance, 0);
+        int rowEnd = Math.min(row + neighborhoodDistance, size - 1);
+        int colStart = Math.max(col - neighborhoodDistance, 0);
+        int colEnd = Math.min(col + neighborhoodDistance, size - 1);
+
+        if (stale) {
+            return scan(rowStart, rowEnd, colStart, colEnd, state);
+        }
+
+        int stride = size + 1;
+        return sums[(rowEnd + 1) * stride + colEnd + 1]
+                - sums[rowStart * stride + colEnd + 1]
+                - sums[(rowEnd + 1) * stride + colStart]
+                + sums[rowStart * stride + colStart];
+    }
+
+    /**
+     * Counts the cells in the given state in a rectangle directly
+     * @return the number of cells in the rectangle rowStart..rowEnd by colStart..colEnd in that state
+     */
+    private int scan(int rowStart, int rowEnd, int colStart, int colEnd, byte state) {
+        int count = 0;
+        for (int rowNum = rowStart; rowNum <= rowEnd; rowNum++) {
+            int base = rowNum * size;
+            for (int index = base + colStart; index <= base + colEnd; index++) {
+                if (cells[index] == state) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,244 @@
+package erehwon;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parameter sweep for BatchRunner: every combination of the listed sizes, neighbourhood distances,
+ * vacancy fractions, red fractions, happiness thresholds and seeds, each simulated for up to the given
+ * number of steps.
+ *
+ * A spec is written one key per line as key = value, value, ... and blank lines and lines starting
+ * with # are ignored. Seeds may also be given as a range first..last, inclusive, with first <= last;
+ * a spec lists at most MAX_SEEDS seeds in all. For example
+ * <pre>
+ * size = 100, 200
+ * distance = 1, 2
+ * vacant = 0.1, 0.3
+ * red = 0.5
+ * threshold = 0.3, 0.5, 0.7
+ * seed = 1..50
+ * steps = 200
+ * </pre>
+ * Every key but steps must be given; steps defaults to 100.
+ */
+public final class SweepSpec {
+    private static final int DEFAULT_STEPS = 100;
+    //the most seeds a spec may list, counting every seed of every range
+    private static final int MAX_SEEDS = 1_000_000;
+
+    private final List<Integer> sizes = new ArrayList<>();
+    private final List<Integer> distances = new ArrayList<>();
+    private final List<Double> vacant = new ArrayList<>();
+    private final List<Double> red = new ArrayList<>();
+    private final List<Double> thresholds = new ArrayList<>();
+    private final List<Long> seeds = new ArrayList<>();
+    private int steps = DEFAULT_STEPS;
+
+    private SweepSpec() {
+    }
+
+    /**
+     * One combination of parameters in a sweep
+     */
+    public static final class Run {
+        private final int size;
+        private final int distance;
+        private final double fractionVacant;
+        private final double fractionRed;
+        private final double happinessThreshold;
+        private final long seed;
+
+        /**
+         * The parameters are those of the seeded RedBlueGrid constructor; they are checked when the grid is built.
+         */
+        public Run(int size, int distance, double fractionVacant, double fractionRed, double happinessThreshold,
+                   long seed) {
+            this.size = size;
+            this.distance = distance;
+            this.fractionVacant = fractionVacant;
+            this.fractionRed = fractionRed;
+            this.happinessThreshold = happinessThreshold;
+            this.seed = seed;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+
+        public double getFractionVacant() {
+            return fractionVacant;
+        }
+
+        public double getFractionRed() {
+            return fractionRed;
+        }
+
+        public double getHappinessThreshold() {
+            return happinessThreshold;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+    }
+
+    /**
+     * Reads a spec in the format described above
+     * @param in the spec, cannot be null; it is read to the end but not closed
+     * @return the spec
+     * @throws IOException if in cannot be read
+     * @throws IllegalArgumentException if a line, key or value is not valid, or a key is missing
+     */
+    public static SweepSpec parse(Reader in) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("The reader cannot be null.");
+        }
+        SweepSpec spec = new SweepSpec();
+        BufferedReader lines = new BufferedReader(in);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + " is not key = values: " + line);
+            }
+            try {
+                spec.add(line.substring(0, equals).trim(), line.substring(equals + 1).split(","));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + " has a value that is not a number: " + line, e);
+            }
+        }
+        spec.check();
+        return spec;
+    }
+
+    private void add(String key, String[] values) {
+        for (String text : values) {
+            String value = text.trim();
+            switch (key) {
+                case "size":
+                    sizes.add(Integer.parseInt(value));
+                    break;
+                case "distance":
+                    distances.add(Integer.parseInt(value));
+                    break;
+                case "vacant":
+                    vacant.add(Double.parseDouble(value));
+                    break;
+                case "red":
+                    red.add(Double.parseDouble(value));
+                    break;
+                case "threshold":
+                    thresholds.add(Double.parseDouble(value));
+                    break;
+                case "seed":
+                    int range = value.indexOf("..");
+                    if (range < 0) {
+                        addSeeds(Long.parseLong(value), Long.parseLong(value));
+                    } else {
+                        addSeeds(Long.parseLong(value.substring(0, range).trim()),
+                                Long.parseLong(value.substring(range + 2).trim()));
+                    }
+                    break;
+                case "steps":
+                    steps = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown key " + key);
+            }
+        }
+    }
+
+    /**
+     * Adds the seeds first to last, inclusive
+     * @throws IllegalArgumentException if first > last or the spec would list more than MAX_SEEDS seeds
+     */
+    private void addSeeds(long first, long last) {
+        if (first > last) {
+            throw new IllegalArgumentException("The seed range " + first + ".." + last + " is reversed.");
+        }
+        //compared without overflow, as last - first can exceed Long.MAX_VALUE
+        if (seeds.size() >= MAX_SEEDS || Long.compareUnsigned(last - first, MAX_SEEDS - 1 - seeds.size()) > 0) {
+            throw new IllegalArgumentException("A spec can list at most " + MAX_SEEDS + " seeds.");
+        }
+        //stop at last rather than past it, which for Long.MAX_VALUE would wrap round
+        for (long seed = first; ; seed++) {
+            seeds.add(seed);
+            if (seed == last) {
+                break;
+            }
+        }
+    }
+
+    private void check() {
+        if (sizes.isEmpty() || distances.isEmpty() || vacant.isEmpty() || red.isEmpty()
+                || thresholds.isEmpty() || seeds.isEmpty()) {
+            throw new IllegalArgumentException("A spec needs size, distance, vacant, red, threshold and seed.");
+        }
+        for (int value : sizes) {
+            checkAtLeastOne(value, "size");
+        }
+        for (int value : distances) {
+            checkAtLeastOne(value, "distance");
+        }
+        for (List<Double> fractions : List.of(vacant, red, thresholds)) {
+            for (double value : fractions) {
+                if (!(value >= 0 && value <= 1)) {
+                    throw new IllegalArgumentException("The fraction " + value + " must be between 0 and 1, inclusive.");
+                }
+            }
+        }
+        if (steps < 0) {
+            throw new IllegalArgumentException("steps cannot be negative.");
+        }
+    }
+
+    private static void checkAtLeastOne(int value, String key) {
+        if (value < 1) {
+            throw new IllegalArgumentException(key + " must be at least 1, not " + value);
+        }
+    }
+
+    /**
+     * @return the maximum number of steps of each simulation
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Lists every combination of the spec. Runs with the same size and distance come one after the other,
+     * so that a worker can reset the grid it already has instead of building a new one.
+     * @return the runs, never empty, unmodifiable
+     */
+    public List<Run> runs() {
+        List<Run> runs = new ArrayList<>();
+        for (int size : sizes) {
+            for (int distance : distances) {
+                for (double fractionVacant : vacant) {
+                    for (double fractionRed : red) {
+                        for (double threshold : thresholds) {
+                            for (long seed : seeds) {
+                                runs.add(new Run(size, distance, fractionVacant, fractionRed, threshold, seed));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableList(runs);
+    }
+}
@@ -0,0 +1,460 @@
+package erehwon;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * A grid of Erehwon for sizes RedBlueGrid cannot hold: up to 10^10 cells and beyond, as long as the memory
+ * or the disk can. The cells live outside the Java heap in tiles (see CellTiles), either in direct memory or
+ * memory-mapped from a file, and everything the grid keeps on the heap is sized by the tile, not the grid.
+ * Apart from an index of the tiles, the heap used is the same for a grid of a thousand cells on a side as
+ * for one of a hundred thousand.
+ *
+ * Happiness is the same as in RedBlueGrid: the fraction of a resident's neighbours within
+ * neighborhoodDistance, clipped to the grid, that share its colour must be at least the happiness threshold.
+ * The grid is worked on one block of tileSize by tileSize cells at a time. A block is copied into a window
+ * along with a halo of neighborhoodDistance cells on every side, read from the neighbouring tiles, and the
+ * red and blue residents of the window are summed into prefix sums so that every neighbourhood takes four
+ * reads to count.
+ *
+ * A time step moves unhappy residents to random vacancies in their own block, as oneTimeStep in RedBlueGrid
+ * does for the whole grid. Blocks are done one after the other, each seeing the moves of the blocks before
+ * it. Every other step the blocks are shifted by half a tile on both axes, so residents can cross the edges
+ * of the blocks of the step before and, over a few steps, travel anywhere.
+ */
+public final class TiledGrid {
+    //the default length of one side of a tile and of a block
+    static final int DEFAULT_TILE_SIZE = 1024;
+    //the largest tile whose window, three tiles on a side at most, can still be indexed by an int
+    private static final int MAX_TILE_SIZE = 8192;
+
+    private final int size;
+    private final int neighborhoodDistance;
+    private final double happinessThreshold;
+    private final CellTiles tiles;
+    private final RandomGenerator rng;
+    private long stepCount;
+
+    //one block and its halo, reused for every block: window[r * windowCols + c] is the cell at
+    //(windowRow + r, windowCol + c), and the sums are the prefix sums of the window's red and blue residents
+    private final byte[] window;
+    private final int[] redSums;
+    private final int[] blueSums;
+    private int windowRow;
+    private int windowCol;
+    private int windowCols;
+    //scratch space for a step: the window indices of the unhappy residents and the vacancies of a block
+    private final int[] movers;
+    private final int[] vacancies;
+
+    private TiledGrid(int size, int neighborhoodDistance, double happinessThreshold, CellTiles tiles,
+                      RandomGenerator rng) {
+        this.size = size;
+        this.neighborhoodDistance = neighborhoodDistance;
+        this.happinessThreshold = happinessThreshold;
+        this.tiles = tiles;
+        this.rng = rng;
+
+        int tileSize = tiles.tileSize();
+        int windowSide = Math.min(tileSize + 2 * neighborhoodDistance, size);
+        this.window = new byte[windowSide * windowSide];
+        this.redSums = new int[(windowSide + 1) * (windowSide + 1)];
+        this.blueSums = new int[(windowSide + 1) * (windowSide + 1)];
+        int blockCells = Math.min(tileSize, size) * Math.min(tileSize, size);
+        this.movers = new int[blockCells];
+        this.vacancies = new int[blockCells];
+    }
+
+    /**
+     * Builds a random grid. Each cell is drawn on its own: vacant with probability fractionVacant, otherwise
+     * red with probability fractionRed and blue if not, so the counts of each are only close to the fractions.
+     *
+     * @param file the file to keep the cells in, replaced if it exists, or null to keep them in direct memory
+     * @param size the length of one side of the square grid, size >= 1
+     * @param neighborhoodDistance the neighbourhood distance, 1 <= neighborhoodDistance <= the tile size, 1024
+     * @param fractionVacant the chance a cell is vacant, 0 <= fractionVacant <= 1
+     * @param fractionRed the chance a resident is red, 0 <= fractionRed <= 1
+     * @param happinessThreshold the minimum happiness level for a resident to be happy, 0 <= happinessThreshold <= 1
+     * @param seed the seed of the random number generator of the grid
+     * @return the grid
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static TiledGrid create(Path file, int size, int neighborhoodDistance, double fractionVacant,
+                                   double fractionRed, double happinessThreshold, long seed) throws IOException {
+        return create(file, size, neighborhoodDistance, fractionVacant, fractionRed, happinessThreshold, seed,
+                DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * create with a tile size other than the default
+     * @param tileSize the length of one side of a tile, 1 <= tileSize <= 8192
+     */
+    static TiledGrid create(Path file, int size, int neighborhoodDistance, double fractionVacant,
+                            double fractionRed, double happinessThreshold, long seed, int tileSize)
+            throws IOException {
+        check(size, neighborhoodDistance, happinessThreshold, tileSize);
+        if (fractionVacant < 0 || fractionVacant > 1 || fractionRed < 0 || fractionRed > 1) {
+            throw new IllegalArgumentException("The fractions must be decimals between 0 and 1, inclusive.");
+        }
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+        CellTiles tiles = file == null ? CellTiles.direct(size, tileSize) : CellTiles.mapped(file, size, tileSize);
+        TiledGrid grid = new TiledGrid(size, neighborhoodDistance, happinessThreshold, tiles, new SplitMix64(seed));
+        grid.fill(fractionVacant, fractionRed);
+        return grid;
+    }
+
+    /**
+     * Maps the cells of a file written by an earlier grid of the same size and tile size, after flush
+     *
+     * @param file the file holding the cells, cannot be null
+     * @param seed the seed of the random number generator from now on
+     * See create for the other parameters.
+     * @return the grid, with a step count of 0
+     * @throws IOException if the file cannot be mapped, is not the length a grid of that size takes, or has a
+     *                     byte that is not a CellState; every cell is checked, so this reads the whole file
+     */
+    public static TiledGrid open(Path file, int size, int neighborhoodDistance, double happinessThreshold,
+                                 long seed) throws IOException {
+        return open(file, size, neighborhoodDistance, happinessThreshold, seed, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * open with a tile size other than the default
+     * @param tileSize the tile size the file was written with
+     */
+    static TiledGrid open(Path file, int size, int neighborhoodDistance, double happinessThreshold, long seed,
+                          int tileSize) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The file cannot be null.");
+        }
+        check(size, neighborhoodDistance, happinessThreshold, tileSize);
+        long expected = CellTiles.fileBytes(size, tileSize);
+        if (Files.size(file) != expected) {
+            throw new IOException(file + " should be " + expected + " bytes long for a grid of size " + size
+                    + ", not " + Files.size(file));
+        }
+        CellTiles tiles = CellTiles.mapped(file, size, tileSize);
+        //a corrupt cell would otherwise only show up in the middle of a step
+        int invalid = tiles.firstInvalidTile();
+        if (invalid >= 0) {
+            throw new IOException(file + " has a cell that is not vacant, red or blue in tile " + invalid);
+        }
+        return new TiledGrid(size, neighborhoodDistance, happinessThreshold, tiles, new SplitMix64(seed));
+    }
+
+    private static void check(int size, int neighborhoodDistance, double happinessThreshold, int tileSize) {
+        if (size < 1 || neighborhoodDistance < 1) {
+            throw new IllegalArgumentException("The size and neighbourhood distance must be at least 1.");
+        }
+        if (tileSize < 1 || tileSize > MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("The tile size must be between 1 and " + MAX_TILE_SIZE + ".");
+        }
+        //the halo of a block is read into the window with the block, so it cannot be larger than a tile
+        if (neighborhoodDistance > tileSize) {
+            throw new IllegalArgumentException("The neighbourhood distance cannot be larger than a tile.");
+        }
+        if (happinessThreshold < 0 || happinessThreshold > 1) {
+            throw new IllegalArgumentException("The happiness threshold must be a decimal between 0 and 1, inclusive.");
+        }
+    }
+
+    /**
+     * Draws every cell, a row at a time
+     */
+    private void fill(double fractionVacant, double fractionRed) {
+        byte[] row = new byte[Math.min(size, tiles.tileSize())];
+        for (int rowNum = 0; rowNum < size; rowNum++) {
+            for (int col = 0; col < size; col += row.length) {
+                int length = Math.min(row.length, size - col);
+                for (int i = 0; i < length; i++) {
+                    if (rng.nextDouble() < fractionVacant) {
+                        row[i] = CellState.VACANT;
+                    } else {
+                        row[i] = rng.nextDouble() < fractionRed ? CellState.RED : CellState.BLUE;
+                    }
+                }
+                tiles.write(rowNum, col, row, 0, length);
+            }
+        }
+    }
+
+    /**
+     * @return the length of one side of the grid
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the neighbourhood distance the grid was built with
+     */
+    public int getNeighborhoodDistance() {
+        return neighborhoodDistance;
+    }
+
+    /**
+     * @return the fraction of same-colour neighbours a resident needs to be happy
+     */
+    public double getHappinessThreshold() {
+        return happinessThreshold;
+    }
+
+    /**
+     * @return the number of time steps taken since the grid was created or opened
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * @return whether the cells are kept in a file rather than in direct memory
+     */
+    public boolean isFileBacked() {
+        return tiles.isMapped();
+    }
+
+    /**
+     * Gets the colour of a cell
+     * @param row the row of the cell, 0 <= row < size
+     * @param col the column of the cell, 0 <= col < size
+     * @return WHITE, RED or BLUE
+     * @throws IllegalArgumentException if the cell is not on the grid
+     */
+    public Color getColor(int row, int col) {
+        checkLocation(row, col);
+        return CellState.toColor(tiles.get(row, col));
+    }
+
+    /**
+     * Sets the colour of a cell
+     * @param row the row of the cell, 0 <= row < size
+     * @param col the column of the cell, 0 <= col < size
+     * @param color WHITE, RED or BLUE
+     * @return true if the cell was set, false if the colour or the cell is not valid
+     */
+    public boolean setColor(int row, int col, Color color) {
+        byte state = CellState.fromColor(color);
+        if (state == CellState.INVALID || row < 0 || row >= size || col < 0 || col >= size) {
+            return false;
+        }
+        tiles.set(row, col, state);
+        return true;
+    }
+
+    private void checkLocation(int row, int col) {
+        if (row < 0 || row >= size || col < 0 || col >= size) {
+            throw new IllegalArgumentException("The row and column must be within the grid.");
+        }
+    }
+
+    /**
+     * Writes the cells of a file-backed grid through to the file, so that open can map them again
+     */
+    public void flush() {
+        tiles.force();
+    }
+
+    /**
+     * Counts the happy and unhappy residents of each colour, one block at a time
+     * @return the census of the whole grid, will not be null
+     */
+    public HappinessCensus census() {
+        long happyRed = 0;
+        long unhappyRed = 0;
+        long happyBlue = 0;
+        long unhappyBlue = 0;
+        int tileSize = tiles.tileSize();
+
+        for (int rowStart = 0; rowStart < size; rowStart += tileSize) {
+            int rowEnd = Math.min(rowStart + tileSize, size);
+            for (int colStart = 0; colStart < size; colStart += tileSize) {
+                int colEnd = Math.min(colStart + tileSize, size);
+                load(rowStart, rowEnd, colStart, colEnd);
+                for (int row = rowStart; row < rowEnd; row++) {
+                    for (int col = colStart; col < colEnd; col++) {
+                        byte state = window[(row - windowRow) * windowCols + col - windowCol];
+                        if (state == CellState.RED) {
+                            if (isHappy(row, col, state)) {
+                                happyRed++;
+                            } else {
+                                unhappyRed++;
+                            }
+                        } else if (state == CellState.BLUE) {
+                            if (isHappy(row, col, state)) {
+                                happyBlue++;
+                            } else {
+                                unhappyBlue++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return new HappinessCensus(happyRed, unhappyRed, happyBlue, unhappyBlue);
+    }
+
+    /**
+     * Takes one time step: in every block in turn the unhappy residents are moved to random vacancies of
+     * the same block, as many as there are vacancies for. See the class comment for how blocks are laid out.
+     *
+     * @return the number of residents that moved
+     */
+    public long oneTimeStep() {
+        int tileSize = tiles.tileSize();
+        //every other step the blocks start half a tile up and to the left, clipped to the grid
+        int offset = stepCount % 2 == 0 ? 0 : tileSize / 2;
+        stepCount++;
+        long moves = 0;
+
+        for (int blockRow = -offset; blockRow < size; blockRow += tileSize) {
+            int rowStart = Math.max(blockRow, 0);
+            int rowEnd = Math.min(blockRow + tileSize, size);
+            for (int blockCol = -offset; blockCol < size; blockCol += tileSize) {
+                int colStart = Math.max(blockCol, 0);
+                int colEnd = Math.min(blockCol + tileSize, size);
+                if (rowStart < rowEnd && colStart < colEnd) {
+                    moves += stepBlock(rowStart, rowEnd, colStart, colEnd);
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Moves the unhappy residents of one block to random vacancies of the block and writes the block back
+     * @return the number of residents that moved
+     */
+    private int stepBlock(int rowStart, int rowEnd, int colStart, int colEnd) {
+        load(rowStart, rowEnd, colStart, colEnd);
+        int numMovers = 0;
+        int numVacant = 0;
+        for (int row = rowStart; row < rowEnd; row++) {
+            for (int col = colStart; col < colEnd; col++) {
+                int index = (row - windowRow) * windowCols + col - windowCol;
+                byte state = window[index];
+                if (state == CellState.VACANT) {
+                    vacancies[numVacant++] = index;
+                } else if (!isHappy(row, col, state)) {
+                    movers[numMovers++] = index;
+                }
+            }
+        }
+
+        //the same matching as RedBlueGrid.oneTimeStep: draw a mover and a vacancy from those not used yet
+        int numChanges = Math.min(numMovers, numVacant);
+        for (int i = 0; i < numChanges; i++) {
+            int mover = i + rng.nextInt(numMovers - i);
+            int vacancy = i + rng.nextInt(numVacant - i);
+            int from = movers[mover];
+            movers[mover] = movers[i];
+            int to = vacancies[vacancy];
+            vacancies[vacancy] = vacancies[i];
+            window[to] = window[from];
+            window[from] = CellState.VACANT;
+        }
+
+        if (numChanges > 0) {
+            for (int row = rowStart; row < rowEnd; row++) {
+                tiles.write(row, colStart, window, (row - windowRow) * windowCols + colStart - windowCol,
+                        colEnd - colStart);
+            }
+        }
+        return numChanges;
+    }
+
+    /**
+     * Simulates random time steps until nobody is unhappy, nobody can move or numSteps steps have been taken.
+     * If the calling thread is interrupted the simulation stops after the current step, with the outcome
+     * INTERRUPTED and the thread still interrupted.
+     *
+     * @param numSteps the maximum number of time steps, numSteps >= 0
+     * @return the number of steps taken, why the simulation stopped and the census at that point
+     */
+    public SimulationResult simulate(int numSteps) {
+        if (numSteps < 0) {
+            throw new IllegalArgumentException("The number of steps cannot be negative.");
+        }
+        HappinessCensus census = census();
+        for (int step = 1; step <= numSteps; step++) {
+            if (census.getUnhappy() == 0) {
+                return new SimulationResult(step - 1, SimulationResult.Outcome.CONVERGED, census);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return new SimulationResult(step - 1, SimulationResult.Outcome.INTERRUPTED, census);
+            }
+            long moves = oneTimeStep();
+            census = census();
+            if (moves == 0) {
+                return new SimulationResult(step, census.getUnhappy() == 0
+                        ? SimulationResult.Outcome.CONVERGED : SimulationResult.Outcome.STALLED, census);
+            }
+        }
+        return new SimulationResult(numSteps, census.getUnhappy() == 0
+                ? SimulationResult.Outcome.CONVERGED : SimulationResult.Outcome.LIMIT, census);
+    }
+
+    /**
+     * Copies a block and its halo, clipped to the grid, into the window and sums its residents
+     */
+    private void load(int rowStart, int rowEnd, int colStart, int colEnd) {
+        windowRow = Math.max(rowStart - neighborhoodDistance, 0);
+        windowCol = Math.max(colStart - neighborhoodDistance, 0);
+        int windowRows = Math.min(rowEnd + neighborhoodDistance, size) - windowRow;
+        windowCols = Math.min(colEnd + neighborhoodDistance, size) - windowCol;
+        for (int r = 0; r < windowRows; r++) {
+            tiles.read(windowRow + r, windowCol, window, r * windowCols, windowCols);
+        }
+
+        //the windows of edge blocks are narrower, so the zero row and column move from one block to the next
+        int stride = windowCols + 1;
+        Arrays.fill(redSums, 0, stride, 0);
+        Arrays.fill(blueSums, 0, stride, 0);
+        for (int r = 0; r < windowRows; r++) {
+            redSums[(r + 1) * stride] = 0;
+            blueSums[(r + 1) * stride] = 0;
+            int redRow = 0;
+            int blueRow = 0;
+            for (int c = 0; c < windowCols; c++) {
+                byte state = window[r * windowCols + c];
+                if (state == CellState.RED) {
+                    redRow++;
+                } else if (state == CellState.BLUE) {
+                    blueRow++;
+                }
+                int sumIndex = (r + 1) * stride + c + 1;
+                redSums[sumIndex] = redSums[sumIndex - stride] + redRow;
+                blueSums[sumIndex] = blueSums[sumIndex - stride] + blueRow;
+            }
+        }
+    }
+
+    /**
+     * Whether the resident of a cell of the loaded block is happy, by RedBlueGrid's rule
+     * @param state the state of the cell, CellState.RED or CellState.BLUE
+     */
+    private boolean isHappy(int row, int col, byte state) {
+        int rowStart = Math.max(row - neighborhoodDistance, 0);
+        int rowEnd = Math.min(row + neighborhoodDistance, size - 1);
+        int colStart = Math.max(col - neighborhoodDistance, 0);
+        int colEnd = Math.min(col + neighborhoodDistance, size - 1);
+        int windowCells = (rowEnd - rowStart + 1) * (colEnd - colStart + 1);
+
+        int[] sums = state == CellState.RED ? redSums : blueSums;
+        int stride = windowCols + 1;
+        int top = rowStart - windowRow;
+        int bottom = rowEnd - windowRow + 1;
+        int left = colStart - windowCol;
+        int right = colEnd - windowCol + 1;
+        //the cell itself is not its own neighbour
+        int same = sums[bottom * stride + right] - sums[top * stride + right]
+                - sums[bottom * stride + left] + sums[top * stride + left] - 1;
+
+        return same / (double) (windowCells - 1) >= happinessThreshold;
+    }
+}
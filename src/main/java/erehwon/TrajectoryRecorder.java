@@ -0,0 +1,186 @@
+package erehwon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every move a RedBlueGrid makes into a compact binary log, for TrajectoryReplayer to replay or scan.
+ * Attach one with RedBlueGrid.setTrajectoryRecorder.
+ *
+ * The log is the 5 bytes "RBGT" and a version byte of 1, then one block per time step:
+ * <pre>
+ * varint  the grid's step count after the step
+ * long    the state of the grid's SplitMix64 after the step, or 0 if it has none (8 bytes, big-endian)
+ * varint  the number of records in the block
+ * records each a varint zigzag(from - previous from) then a varint zigzag(to - from) &lt;&lt; 2 | colour
+ * </pre>
+ * A record moves the resident of cell from, of the given CellState colour, into the vacant cell to.
+ * A record with from equal to to sets that cell to the colour instead, as setColor and shiftColor do.
+ * Indices are row-major, and the previous from starts at 0 in every block, so a record usually takes
+ * 3 to 5 bytes.
+ *
+ * The records of a step are gathered in a buffer and written to the channel in one go when the step ends.
+ * Cells set between two steps go into the block of the next step, ahead of its moves. Attaching the recorder
+ * to a grid writes an empty block for the step the grid is at, and cells set after the last step are written
+ * at close in a block of that same step, so a block that repeats the step of the one before it only sets cells.
+ */
+public final class TrajectoryRecorder implements Closeable {
+    static final int MAGIC = 0x52424754;
+    static final byte VERSION = 1;
+
+    private final WritableByteChannel channel;
+    //the records of the step in progress
+    private ByteBuffer records = ByteBuffer.allocate(1 << 16);
+    //the block header, then the records, on their way to the channel
+    private final ByteBuffer header = ByteBuffer.allocate(32);
+    private int recordCount;
+    private int previousFrom;
+    private long lastStep;
+    private long lastRngState;
+
+    /**
+     * Starts a log on the given channel, writing its magic and version at once
+     * @param channel where to write the log, cannot be null; closed by close
+     * @throws IOException if the channel cannot be written
+     */
+    public TrajectoryRecorder(WritableByteChannel channel) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("The channel cannot be null.");
+        }
+        this.channel = channel;
+        header.putInt(MAGIC).put(VERSION).flip();
+        writeFully(header);
+    }
+
+    /**
+     * Starts a log in a new file, replacing any file already there
+     * @param file the file to write, cannot be null
+     * @return the recorder; close it when done
+     * @throws IOException if the file cannot be opened
+     */
+    public static TrajectoryRecorder open(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("The file cannot be null.");
+        }
+        return new TrajectoryRecorder(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Records a resident moving into a vacant cell
+     * @param from the row-major index of the cell it left
+     * @param to the row-major index of the cell it moved into
+     * @param colour the CellState of the resident
+     */
+    void move(int from, int to, byte colour) {
+        ensureRoom();
+        putVarint(records, zigzag(from - previousFrom));
+        putVarint(records, zigzag(to - from) << 2 | colour);
+        previousFrom = from;
+        recordCount++;
+    }
+
+    /**
+     * Records a cell being set to a state
+     * @param index the row-major index of the cell
+     * @param state the CellState it now holds
+     */
+    void set(int index, byte state) {
+        move(index, index, state);
+    }
+
+    /**
+     * Marks the step the grid the recorder was just attached to is at, with an empty block, after writing out
+     * any cells set on a grid it was attached to before
+     * @param step the grid's step count
+     * @param rngState the state of the grid's SplitMix64, or 0
+     * @throws UncheckedIOException if the channel cannot be written
+     */
+    void attached(long step, long rngState) {
+        if (recordCount > 0) {
+            endStep(lastStep, lastRngState);
+        }
+        endStep(step, rngState);
+    }
+
+    /**
+     * Writes the records of the step that just ended as one block
+     * @param step the grid's step count after the step
+     * @param rngState the state of the grid's SplitMix64, or 0
+     * @throws UncheckedIOException if the channel cannot be written
+     */
+    void endStep(long step, long rngState) {
+        lastStep = step;
+        lastRngState = rngState;
+        header.clear();
+        putVarint(header, step);
+        header.putLong(rngState);
+        putVarint(header, recordCount);
+        header.flip();
+        records.flip();
+        try {
+            writeFully(header);
+            writeFully(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        records.clear();
+        recordCount = 0;
+        previousFrom = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * makes sure records has room for one more record, two varints of at most 5 bytes each
+     */
+    private void ensureRoom() {
+        if (records.remaining() < 10) {
+            ByteBuffer bigger = ByteBuffer.allocate(records.capacity() * 2);
+            records.flip();
+            bigger.put(records);
+            records = bigger;
+        }
+    }
+
+    /**
+     * @return the value with its sign moved to the lowest bit, so that small negative values stay small
+     */
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes any cells set since the last step as a block of their own, then closes the channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (recordCount > 0) {
+                endStep(lastStep, lastRngState);
+            }
+        } catch (UncheckedIOException e) {
+            channel.close();
+            throw e.getCause();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,251 @@
+package erehwon;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the logs written by TrajectoryRecorder, either to rebuild the grid of any step or to walk through
+ * every move for analysis.
+ *
+ * replay starts from a snapshot saved by GridSnapshot just before the log was attached and applies the
+ * logged moves straight to the cells, one array write per cell changed, with no happiness computed at any
+ * point; only the grid that comes out at the end is counted. A seeded grid rebuilt this way also gets the
+ * random number generator state of the step it stopped at, so it takes exactly the steps the recorded grid
+ * took next.
+ */
+public final class TrajectoryReplayer {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private TrajectoryReplayer() {
+    }
+
+    /**
+     * Told about the blocks and records of a log by scan, in the order they were recorded
+     */
+    public interface Visitor {
+
+        /**
+         * Called before the records of a block
+         * @param step the grid's step count after the step the block belongs to
+         * @param records the number of records in the block
+         */
+        default void onStep(long step, int records) {
+        }
+
+        /**
+         * Called for every record
+         * @param from the row-major index of the cell the resident left
+         * @param to the row-major index of the cell it moved into, the same as from if the cell was set instead
+         * @param colour the colour of the resident, or the colour the cell was set to
+         */
+        void onMove(int from, int to, Color colour);
+    }
+
+    /**
+     * Rebuilds the grid as it was after a given step of a recorded run
+     * @param snapshot a snapshot of the grid saved just before the recorder was attached, or right after an
+     *                 earlier step of the same log; cannot be null
+     * @param log the log written by the recorder, cannot be null
+     * @param step the step to stop after, at least the step count of the snapshot. Cells set after the last
+     *             step, before the log was closed, are included when step is the last step.
+     * @return a new grid in the state the recorded grid was in after that step
+     * @throws IOException if either file cannot be read or is corrupt, the log does not fit the snapshot,
+     *                     or the log ends before the step
+     * @throws IllegalArgumentException if step is before the snapshot
+     */
+    public static RedBlueGrid replay(Path snapshot, Path log, long step) throws IOException {
+        if (snapshot == null || log == null) {
+            throw new IllegalArgumentException("The snapshot and log cannot be null.");
+        }
+        GridSnapshot.Contents grid = GridSnapshot.read(snapshot);
+        if (step < grid.stepCount) {
+            throw new IllegalArgumentException("The snapshot is already at step " + grid.stepCount
+                    + ", it cannot go back to step " + step + ".");
+        }
+        byte[] cells = grid.cells;
+
+        try (LogReader reader = new LogReader(log)) {
+            long start = grid.stepCount;
+            //whether the block that ends the snapshot's step has gone by; blocks of the same step after it only
+            //set cells, after the snapshot was taken
+            boolean pastStart = false;
+            while (grid.stepCount < step || reader.more()) {
+                if (!reader.nextBlock()) {
+                    throw new IOException(log + " ends at step " + grid.stepCount + ", before step " + step);
+                }
+                if (reader.blockStep > step) {
+                    break;
+                }
+                //blocks up to the snapshot's step are already in its cells
+                if (reader.blockStep < start || reader.blockStep == start && !pastStart) {
+                    pastStart = reader.blockStep == start;
+                    reader.skipRecords();
+                    continue;
+                }
+                for (int i = 0; i < reader.blockRecords; i++) {
+                    reader.nextRecord();
+                    apply(cells, reader, log);
+                }
+                grid.stepCount = reader.blockStep;
+                if (grid.hasRngState) {
+                    grid.rngState = reader.blockRngState;
+                }
+            }
+        }
+        return grid.toGrid();
+    }
+
+    /**
+     * Applies the record last read to the cells
+     * @throws IOException if the record does not fit the cells
+     */
+    private static void apply(byte[] cells, LogReader reader, Path log) throws IOException {
+        int from = reader.from;
+        int to = reader.to;
+        byte colour = reader.colour;
+        if (from < 0 || from >= cells.length || to < 0 || to >= cells.length || colour > CellState.BLUE) {
+            throw new IOException(log + " has a record outside the grid in the block of step " + reader.blockStep);
+        }
+        if (from == to) {
+            cells[to] = colour;
+            return;
+        }
+        if (colour == CellState.VACANT || cells[from] != colour || cells[to] != CellState.VACANT) {
+            throw new IOException(log + " does not fit the snapshot: cell " + from + " cannot move to " + to
+                    + " in step " + reader.blockStep);
+        }
+        cells[to] = colour;
+        cells[from] = CellState.VACANT;
+    }
+
+    /**
+     * Walks through a whole log, handing every block and record to the visitor
+     * @param log the log written by a recorder, cannot be null
+     * @param visitor told about every block and record, cannot be null
+     * @return the step of the last block, or -1 if the log has none
+     * @throws IOException if the log cannot be read or is corrupt
+     */
+    public static long scan(Path log, Visitor visitor) throws IOException {
+        if (log == null || visitor == null) {
+            throw new IllegalArgumentException("The log and visitor cannot be null.");
+        }
+        long lastStep = -1;
+        try (LogReader reader = new LogReader(log)) {
+            while (reader.nextBlock()) {
+                lastStep = reader.blockStep;
+                visitor.onStep(reader.blockStep, reader.blockRecords);
+                for (int i = 0; i < reader.blockRecords; i++) {
+                    reader.nextRecord();
+                    if (reader.colour > CellState.BLUE) {
+                        throw new IOException(log + " has a record of an unknown colour in the block of step "
+                                + reader.blockStep);
+                    }
+                    visitor.onMove(reader.from, reader.to, CellState.toColor(reader.colour));
+                }
+            }
+        }
+        return lastStep;
+    }
+
+    /**
+     * Decodes a log a block header and a record at a time
+     */
+    private static final class LogReader implements AutoCloseable {
+        private final Path log;
+        private final DataInputStream in;
+        long blockStep;
+        long blockRngState;
+        int blockRecords;
+        //the record last read by nextRecord
+        int from;
+        int to;
+        byte colour;
+
+        LogReader(Path log) throws IOException {
+            this.log = log;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log), BUFFER_BYTES));
+            try {
+                if (in.readInt() != TrajectoryRecorder.MAGIC) {
+                    throw new IOException(log + " is not a trajectory log");
+                }
+                byte version = in.readByte();
+                if (version != TrajectoryRecorder.VERSION) {
+                    throw new IOException(log + " has log version " + version + ", only "
+                            + TrajectoryRecorder.VERSION + " is supported");
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e instanceof EOFException ? new IOException(log + " is not a trajectory log", e) : e;
+            }
+        }
+
+        /**
+         * @return whether another block follows, without reading it
+         */
+        boolean more() throws IOException {
+            in.mark(1);
+            boolean more = in.read() >= 0;
+            in.reset();
+            return more;
+        }
+
+        /**
+         * Reads the header of the next block, after the records of the previous block have all been read
+         * @return false at the end of the log
+         */
+        boolean nextBlock() throws IOException {
+            if (!more()) {
+                return false;
+            }
+            blockStep = readVarint();
+            blockRngState = in.readLong();
+            long records = readVarint();
+            if (blockStep < 0 || records > Integer.MAX_VALUE) {
+                throw new IOException(log + " has a corrupt block header");
+            }
+            blockRecords = (int) records;
+            from = 0;
+            return true;
+        }
+
+        void nextRecord() throws IOException {
+            from += unzigzag(readVarint());
+            long toAndColour = readVarint();
+            colour = (byte) (toAndColour & 3);
+            to = from + unzigzag(toAndColour >>> 2);
+        }
+
+        void skipRecords() throws IOException {
+            for (int i = 0; i < blockRecords; i++) {
+                nextRecord();
+            }
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException(log + " has a varint that is too long");
+        }
+
+        private static int unzigzag(long value) {
+            int zigzag = (int) value;
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
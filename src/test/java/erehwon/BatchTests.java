@@ -0,0 +1,89 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchTests {
+
+    @Test
+    public void parsesSpec() throws IOException {
+        SweepSpec spec = SweepSpec.parse(new StringReader("# a small sweep\n"
+                + "size = 10, 20\n"
+                + "distance = 1\n"
+                + "\n"
+                + "vacant = 0.2\n"
+                + "red = 0.5\n"
+                + "threshold = 0.3, 0.6\n"
+                + "seed = 3..5\n"
+                + "steps = 7\n"));
+        assertEquals(7, spec.getSteps());
+        assertEquals(2 * 2 * 3, spec.runs().size());
+        assertEquals(10, spec.runs().get(0).getSize());
+        assertEquals(5, spec.runs().get(2).getSeed());
+        assertEquals(20, spec.runs().get(11).getSize());
+    }
+
+    @Test
+    public void rejectsBadSpecs() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader("size = 10\n")));
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader("colour = red\n")));
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader(
+                "size = 10\ndistance = 1\nvacant = 1.5\nred = 0.5\nthreshold = 0.5\nseed = 1\n")));
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader("size 10\n")));
+        String start = "size = 10\ndistance = 1\nvacant = 0.2\nred = 0.5\nthreshold = 0.5\n";
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader(start + "seed = 5..3\n")));
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader(
+                start + "seed = 0..9223372036854775807\n")));
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new StringReader(
+                start + "seed = -9223372036854775808..9223372036854775807\n")));
+        SweepSpec last = SweepSpec.parse(new StringReader(start + "seed = 9223372036854775806..9223372036854775807\n"));
+        assertEquals(2, last.runs().size());
+        assertEquals(Long.MAX_VALUE, last.runs().get(1).getSeed());
+    }
+
+    @Test
+    public void runsMatchSingleGrids() throws Exception {
+        SweepSpec spec = SweepSpec.parse(new StringReader(
+                "size = 12, 16\ndistance = 1, 2\nvacant = 0.2\nred = 0.5\nthreshold = 0.4, 0.7\nseed = 1..3\nsteps = 20\n"));
+        StringWriter out = new StringWriter();
+        assertEquals(24, new BatchRunner(spec, 3).run(out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(25, lines.length);
+        assertTrue(lines[0].startsWith("run,size,distance"));
+
+        //every run gives the same result as a fresh grid with the same parameters
+        String[] rows = Arrays.copyOfRange(lines, 1, lines.length);
+        for (String row : rows) {
+            String[] fields = row.split(",");
+            SweepSpec.Run run = spec.runs().get(Integer.parseInt(fields[0]));
+            RedBlueGrid grid = new RedBlueGrid(run.getSize(), run.getDistance(), run.getFractionVacant(),
+                    run.getFractionRed(), run.getHappinessThreshold(), run.getSeed());
+            SimulationResult result = grid.simulate(spec.getSteps());
+            assertEquals(Integer.toString(result.getSteps()), fields[7]);
+            assertEquals(result.getOutcome().toString(), fields[8]);
+            assertEquals(Long.toString(result.getCensus().getHappyRed()), fields[9]);
+            assertEquals(Long.toString(result.getCensus().getUnhappyBlue()), fields[12]);
+        }
+    }
+
+    @Test
+    public void writesFinishedRowsWhenARunFails() throws Exception {
+        //a grid of 46341 on a side has more cells than an array can hold, so its run fails
+        SweepSpec spec = SweepSpec.parse(new StringReader(
+                "size = 10, 46341\ndistance = 1\nvacant = 0.2\nred = 0.5\nthreshold = 0.4\nseed = 1..2\nsteps = 5\n"));
+        StringWriter out = new StringWriter();
+        assertThrows(RuntimeException.class, () -> new BatchRunner(spec, 1).run(out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("0,10,"));
+        assertTrue(lines[2].startsWith("1,10,"));
+    }
+}
@@ -0,0 +1,97 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CanvasTests {
+
+    @Test
+    public void drawsAndFindsCells() throws Exception {
+        RedBlueGrid grid = new RedBlueGrid(50, 1, 0.3, 0.5, 0.5, 4L);
+        GridCanvas canvas = new GridCanvas(grid);
+        for (int row = 0; row < 50; row++) {
+            for (int col = 0; col < 50; col++) {
+                assertEquals(grid.getColor(row, col), canvas.pixelColor(row, col));
+            }
+        }
+
+        //the canvas follows the grid without being refreshed, as long as the grid is changed on the event thread
+        SwingUtilities.invokeAndWait(() -> {
+            grid.oneTimeStep();
+            grid.directedSteps();
+            grid.setColor(7, 9, Color.BLUE);
+            assertEquals(Color.BLUE, canvas.pixelColor(7, 9));
+            for (int row = 0; row < 50; row++) {
+                for (int col = 0; col < 50; col++) {
+                    assertEquals(grid.getColor(row, col), canvas.pixelColor(row, col));
+                }
+            }
+            assertTrue(canvas.hasDirtyTiles());
+            canvas.paintDirtyTiles();
+            assertFalse(canvas.hasDirtyTiles());
+        });
+
+        //200 by 100 pixels: cells of 2 pixels, drawn from the top left
+        canvas.setSize(200, 100);
+        assertEquals(0, canvas.cellAt(0, 0));
+        assertEquals(3 * 50 + 5, canvas.cellAt(11, 7));
+        assertEquals(-1, canvas.cellAt(100, 0));
+        assertEquals(-1, canvas.cellAt(-1, 5));
+
+        canvas.setGrid(new RedBlueGrid(10, 1, 1, 0, 0.5));
+        grid.setColor(0, 0, Color.RED);
+        assertFalse(canvas.hasDirtyTiles());
+        assertEquals(Color.WHITE, canvas.pixelColor(9, 9));
+        assertEquals(9 * 10 + 9, canvas.cellAt(99, 99));
+    }
+
+    @Test
+    public void changesComeInBatches() {
+        RedBlueGrid grid = new RedBlueGrid(30, 1, 0.2, 0.5, 0.6, 8L);
+        List<int[]> batches = new ArrayList<>();
+        int[] resets = new int[1];
+        grid.setCellChangeListener(new CellChangeListener() {
+            @Override
+            public void cellsChanged(int[] cells, int count) {
+                batches.add(Arrays.copyOf(cells, count));
+            }
+
+            @Override
+            public void allCellsChanged() {
+                resets[0]++;
+            }
+        });
+
+        Color[] before = new Color[900];
+        for (int i = 0; i < 900; i++) {
+            before[i] = grid.getColor(i / 30, i % 30);
+        }
+        int moves = grid.oneTimeStep();
+        assertEquals(1, batches.size());
+        assertEquals(2 * moves, batches.get(0).length);
+        boolean[] reported = new boolean[900];
+        for (int index : batches.get(0)) {
+            reported[index] = true;
+        }
+        for (int i = 0; i < 900; i++) {
+            if (!reported[i]) {
+                assertEquals(before[i], grid.getColor(i / 30, i % 30));
+            }
+        }
+
+        grid.shiftColor(2, 3);
+        assertArrayEquals(new int[] {2 * 30 + 3}, batches.get(1));
+        grid.reset(0.2, 0.5, 0.6);
+        assertEquals(1, resets[0]);
+        grid.setCellChangeListener(null);
+        grid.oneTimeStep();
+        assertEquals(2, batches.size());
+    }
+}
@@ -126,4 +126,123 @@ public class HappinessTests {
         assertEquals(0.25, rbGrid.happyNeighbours(3,0, Color.RED), 0.005);
         assertEquals(0.182, rbGrid.happyNeighbours(3,1, Color.RED), 0.005);
     }
+
+    /**
+     * the neighbour counts are updated move by move, so after a few steps they
+     * must still agree with counting the neighbourhood directly
+     */
+    @Test
+    public void countsMatchAfterMoves() {
+        RedBlueGrid rbGrid = new RedBlueGrid(20, 2, 0.2, 0.5, 0.6);
+        rbGrid.shiftColor(3, 3);
+        rbGrid.setColor(0, 0, Color.BLUE);
+        rbGrid.oneTimeStep();
+        rbGrid.directedSteps();
+        assertCountsMatch(rbGrid, 20, 2);
+    }
+
+    /**
+     * the summed-area engine counts the same neighbourhoods as the incremental one,
+     * both straight after a rebuild and for cells queried after moves
+     */
+    @Test
+    public void summedAreaMatchesIncremental() {
+        RedBlueGrid rbGrid = new RedBlueGrid(25, 6, 0.3, 0.4, 0.5);
+        double incremental = rbGrid.fractionHappy();
+        rbGrid.setHappinessMode(HappinessMode.SUMMED_AREA);
+        assertEquals(incremental, rbGrid.fractionHappy());
+        assertCountsMatch(rbGrid, 25, 6);
+
+        rbGrid.directedSteps();
+        rbGrid.shiftColor(24, 24);
+        assertCountsMatch(rbGrid, 25, 6);
+        double summedArea = rbGrid.fractionHappy();
+        rbGrid.setHappinessMode(HappinessMode.INCREMENTAL);
+        assertEquals(summedArea, rbGrid.fractionHappy());
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.setHappinessMode(null));
+    }
+
+    /**
+     * the census only classifies bands near recent moves again, so after moves and
+     * colour changes it must still agree with asking every resident directly
+     */
+    @Test
+    public void censusTracksMoves() {
+        RedBlueGrid rbGrid = new RedBlueGrid(90, 2, 0.2, 0.5, 0.55, 9L);
+        rbGrid.census();
+        rbGrid.oneTimeStep();
+        rbGrid.directedSteps();
+        rbGrid.setColor(45, 45, Color.RED);
+        rbGrid.shiftColor(89, 0);
+
+        long happy = 0;
+        long unhappy = 0;
+        for (int row = 0; row < 90; row++) {
+            for (int col = 0; col < 90; col++) {
+                if (rbGrid.getColor(row, col) != Color.WHITE) {
+                    if (rbGrid.isHappy(row, col)) {
+                        happy++;
+                    } else {
+                        unhappy++;
+                    }
+                }
+            }
+        }
+        HappinessCensus census = rbGrid.census();
+        assertEquals(happy, census.getHappy());
+        assertEquals(unhappy, census.getUnhappy());
+    }
+
+    @Test
+    public void unhappySetsTrackSteps() {
+        RedBlueGrid rbGrid = new RedBlueGrid(70, 1, 0.15, 0.5, 0.6, 21L);
+        for (int step = 0; step < 8; step++) {
+            rbGrid.oneTimeStep();
+            rbGrid.shiftColor(step, 69 - step);
+
+            long unhappyRed = 0;
+            long unhappyBlue = 0;
+            for (int row = 0; row < 70; row++) {
+                for (int col = 0; col < 70; col++) {
+                    Color color = rbGrid.getColor(row, col);
+                    if (color != Color.WHITE && !rbGrid.isHappy(row, col)) {
+                        if (color == Color.RED) {
+                            unhappyRed++;
+                        } else {
+                            unhappyBlue++;
+                        }
+                    }
+                }
+            }
+            HappinessCensus census = rbGrid.census();
+            assertEquals(unhappyRed, census.getUnhappyRed());
+            assertEquals(unhappyBlue, census.getUnhappyBlue());
+        }
+    }
+
+    /**
+     * compares happyNeighbours for every cell and colour against a direct count
+     */
+    static void assertCountsMatch(RedBlueGrid rbGrid, int size, int distance) {
+        Color[] colors = {Color.WHITE, Color.RED, Color.BLUE};
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                for (Color color : colors) {
+                    int same = 0;
+                    int total = 0;
+                    for (int r = Math.max(row - distance, 0); r <= Math.min(row + distance, size - 1); r++) {
+                        for (int c = Math.max(col - distance, 0); c <= Math.min(col + distance, size - 1); c++) {
+                            if (r != row || c != col) {
+                                total++;
+                                if (rbGrid.getColor(r, c) == color) {
+                                    same++;
+                                }
+                            }
+                        }
+                    }
+                    assertEquals(same / (double) total, rbGrid.happyNeighbours(row, col, color));
+                }
+            }
+        }
+    }
 }
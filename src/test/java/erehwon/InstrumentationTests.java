@@ -0,0 +1,89 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstrumentationTests {
+
+    @Test
+    public void offByDefault() {
+        RedBlueGrid rbGrid = new RedBlueGrid(30, 1, 0.2, 0.5, 0.6, 4L);
+        rbGrid.oneTimeStep();
+        rbGrid.directedSteps();
+        InstrumentationSnapshot snapshot = rbGrid.getInstrumentation().snapshot();
+        assertFalse(rbGrid.getInstrumentation().isEnabled());
+        assertEquals(0, snapshot.getSteps());
+        assertEquals(0, snapshot.getTotalNanos());
+        assertEquals(0, snapshot.getMovesAttempted());
+    }
+
+    @Test
+    public void countsSteps() {
+        RedBlueGrid rbGrid = new RedBlueGrid(30, 1, 0.2, 0.5, 0.6, 4L);
+        rbGrid.setInstrumented(true);
+        int randomMoves = rbGrid.oneTimeStep();
+        int directedMoves = rbGrid.directedSteps();
+
+        InstrumentationSnapshot snapshot = rbGrid.getInstrumentation().snapshot();
+        assertEquals(2, snapshot.getSteps());
+        assertEquals(randomMoves + directedMoves, snapshot.getMovesAccepted());
+        assertTrue(snapshot.getMovesAttempted() >= snapshot.getMovesAccepted());
+        assertEquals(snapshot.getMovesAttempted() - snapshot.getMovesAccepted(), snapshot.getMovesRejected());
+        //the first step classifies every cell
+        assertTrue(snapshot.getCellsClassified() >= 30 * 30);
+        assertTrue(snapshot.getNeighbourQueries() > 0);
+        assertTrue(snapshot.getClassifyNanos() > 0);
+
+        rbGrid.setInstrumented(false);
+        rbGrid.oneTimeStep();
+        assertEquals(2, rbGrid.getInstrumentation().getSteps());
+        rbGrid.getInstrumentation().reset();
+        assertEquals(0, rbGrid.getInstrumentation().snapshot().getSteps());
+    }
+
+    @Test
+    public void restoresAllocationAccounting() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean before = bean.isThreadAllocatedMemoryEnabled();
+        bean.setThreadAllocatedMemoryEnabled(false);
+        try {
+            RedBlueGrid rbGrid = new RedBlueGrid(20, 1, 0.2, 0.5, 0.6, 4L);
+            //building, instrumenting and stepping a grid leave the JVM's settings alone
+            rbGrid.setInstrumented(true);
+            rbGrid.oneTimeStep();
+            assertFalse(bean.isThreadAllocatedMemoryEnabled());
+
+            //simulate switches accounting on while it runs, and back off when it is done
+            boolean[] during = new boolean[1];
+            rbGrid.setSimulationListener(stats -> during[0] = bean.isThreadAllocatedMemoryEnabled());
+            rbGrid.simulate(3);
+            assertTrue(during[0]);
+            assertFalse(bean.isThreadAllocatedMemoryEnabled());
+            assertTrue(rbGrid.getInstrumentation().getAllocatedBytes() >= 0);
+        } finally {
+            bean.setThreadAllocatedMemoryEnabled(before);
+        }
+    }
+
+    @Test
+    public void registersWithJmx() throws Exception {
+        RedBlueGrid rbGrid = new RedBlueGrid(20, 1, 0.2, 0.5, 0.6, 4L);
+        rbGrid.setInstrumented(true);
+        rbGrid.oneTimeStep();
+
+        ObjectName name = rbGrid.getInstrumentation().register("instrumentation-test");
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Steps"));
+            assertEquals(true, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Enabled"));
+            assertThrows(IllegalArgumentException.class,
+                    () -> rbGrid.getInstrumentation().register("instrumentation-test"));
+        } finally {
+            rbGrid.getInstrumentation().unregister(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
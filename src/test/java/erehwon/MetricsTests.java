@@ -0,0 +1,80 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+
+    private static StepStats stats(int step) {
+        //step red residents are happy out of 10, and no blue resident
+        return new StepStats(step, 2 * step, new HappinessCensus(step, 10 - step, 0, 10), step * 1_000_000L);
+    }
+
+    @Test
+    public void keepsTheLastSteps() {
+        MetricsPanel panel = new MetricsPanel(4);
+        assertEquals(0, panel.getCount());
+        for (int step = 1; step <= 6; step++) {
+            panel.onStep(stats(step));
+        }
+        assertEquals(4, panel.getCount());
+        //steps 1 and 2 have dropped off
+        assertArrayEquals(new double[] {0.3, 0, 6, 3}, panel.valuesAt(0), 1e-9);
+        assertArrayEquals(new double[] {0.6, 0, 12, 6}, panel.valuesAt(3), 1e-9);
+
+        panel.clear();
+        assertEquals(0, panel.getCount());
+        panel.onStep(stats(1));
+        assertArrayEquals(new double[] {0.1, 0, 2, 1}, panel.valuesAt(0), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> new MetricsPanel(1));
+    }
+
+    @Test
+    public void paintsAWrappedBuffer() {
+        MetricsPanel panel = new MetricsPanel(5);
+        panel.setSize(220, 300);
+        BufferedImage image = new BufferedImage(220, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        panel.paint(g);
+        for (int step = 1; step <= 7; step++) {
+            panel.onStep(stats(step));
+        }
+        panel.paint(g);
+        g.dispose();
+        //the fraction of happy reds is drawn as a red line
+        boolean redLine = false;
+        for (int y = 0; y < 100 && !redLine; y++) {
+            for (int x = 0; x < 220 && !redLine; x++) {
+                Color pixel = new Color(image.getRGB(x, y));
+                redLine = pixel.getRed() > 150 && pixel.getGreen() < 100 && pixel.getBlue() < 100;
+            }
+        }
+        assertTrue(redLine);
+        assertArrayEquals(new double[] {0.7, 0, 14, 7}, panel.valuesAt(4), 1e-9);
+    }
+
+    @Test
+    public void plotsEveryStepOfAWorker() throws Exception {
+        RedBlueGrid grid = new RedBlueGrid(40, 1, 0.2, 0.5, 0.6, 23L);
+        MetricsPanel panel = new MetricsPanel(100);
+        CompletableFuture<SimulationResult> done = new CompletableFuture<>();
+        SimulationWorker worker = new SimulationWorker(grid, frame -> { }, done::complete, 1);
+        worker.setStepListener(panel);
+        worker.start(20);
+        SimulationResult result = done.get(30, TimeUnit.SECONDS);
+
+        //one frame a second at most, but every step is plotted
+        assertEquals(result.getSteps(), panel.getCount());
+        StepStats expected = new StepStats(result.getSteps(), 0, result.getCensus(), 0);
+        double[] last = panel.valuesAt(panel.getCount() - 1);
+        assertEquals(expected.getFractionHappyRed(), last[0], 1e-9);
+        assertEquals(expected.getFractionHappyBlue(), last[1], 1e-9);
+    }
+}
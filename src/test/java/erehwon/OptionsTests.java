@@ -0,0 +1,62 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptionsTests {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void parsesCommandLine() throws IOException {
+        RedBlueGridUI.Options defaults = RedBlueGridUI.Options.parse(new String[0]);
+        assertEquals(4, defaults.size);
+        assertEquals(25, defaults.steps);
+        assertNull(defaults.seed);
+
+        RedBlueGridUI.Options options = RedBlueGridUI.Options.parse(
+                new String[] {"--size", "300", "--distance", "3", "--steps", "500", "--seed", "-9"});
+        assertEquals(500, options.steps);
+        RedBlueGrid grid = options.grid();
+        assertEquals(300, grid.getSize());
+        assertEquals(3, grid.getNeighborhoodDistance());
+        assertEquals(-9L, options.seed);
+        //a grid drawn from the command line has residents, and the seed decides where they are
+        assertTrue(grid.census().getHappy() + grid.census().getUnhappy() > 0);
+        SimulateTests.assertSameGrid(grid, options.grid(), 300);
+
+        RedBlueGridUI.Options fractions = RedBlueGridUI.Options.parse(
+                new String[] {"--size", "20", "--vacant", "0.5", "--red", "1", "--threshold", "0.4"});
+        RedBlueGrid reds = fractions.grid();
+        assertEquals(0.4, reds.getHappinessThreshold());
+        assertEquals(0, reds.census().getHappyBlue() + reds.census().getUnhappyBlue());
+        assertEquals(200, reds.census().getHappyRed() + reds.census().getUnhappyRed());
+
+        assertThrows(IllegalArgumentException.class, () -> RedBlueGridUI.Options.parse(new String[] {"--size"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> RedBlueGridUI.Options.parse(new String[] {"--colour", "red"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> RedBlueGridUI.Options.parse(new String[] {"--size", "0"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> RedBlueGridUI.Options.parse(new String[] {"--seed", "abc"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> RedBlueGridUI.Options.parse(new String[] {"--vacant", "1.5"}));
+    }
+
+    @Test
+    public void opensSnapshot() throws IOException {
+        RedBlueGrid saved = new RedBlueGrid(64, 2, 0.2, 0.5, 0.5, 3L);
+        Path file = folder.resolve("ui.rbgs");
+        GridSnapshot.save(saved, file);
+        RedBlueGrid grid = RedBlueGridUI.Options.parse(new String[] {"--snapshot", file.toString(), "--size", "10"})
+                .grid();
+        assertEquals(64, grid.getSize());
+        SimulateTests.assertSameGrid(saved, grid, 64);
+    }
+}
@@ -0,0 +1,71 @@
+package erehwon;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelTests {
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void parallelCensusMatchesSerial() {
+        RedBlueGrid rbGrid = new RedBlueGrid(150, 2, 0.1, 0.45, 0.5, 3L);
+        HappinessCensus serial = rbGrid.census();
+        double serialFraction = rbGrid.fractionHappy();
+
+        rbGrid.setParallelism(pool);
+        assertEquals(serial, rbGrid.census());
+        assertEquals(serialFraction, rbGrid.fractionHappy());
+        assertEquals(150 * 150 - (int) (0.1 * 150 * 150), rbGrid.census().getHappy() + rbGrid.census().getUnhappy());
+    }
+
+    @Test
+    public void parallelCensusSummedArea() {
+        RedBlueGrid rbGrid = new RedBlueGrid(97, 7, 0.2, 0.3, 0.6, 5L);
+        rbGrid.setHappinessMode(HappinessMode.SUMMED_AREA);
+        HappinessCensus serial = rbGrid.census();
+        rbGrid.setParallelism(pool);
+        assertEquals(serial, rbGrid.census());
+    }
+
+    @Test
+    public void parallelStepMatchesSerial() {
+        RedBlueGrid serial = new RedBlueGrid(120, 1, 0.15, 0.5, 0.6, 11L);
+        RedBlueGrid parallel = new RedBlueGrid(120, 1, 0.15, 0.5, 0.6, 11L);
+        parallel.setParallelism(pool);
+
+        for (int step = 0; step < 4; step++) {
+            serial.oneTimeStep();
+            parallel.oneTimeStep();
+        }
+        SimulateTests.assertSameGrid(serial, parallel, 120);
+        HappinessTests.assertCountsMatch(parallel, 120, 1);
+    }
+
+    @Test
+    public void parallelStepFewMoves() {
+        //a large neighbourhood and few vacancies, so the engine gets a delta per move instead of a rebuild
+        RedBlueGrid serial = new RedBlueGrid(200, 3, 0.01, 0.5, 0.3, 2L);
+        RedBlueGrid parallel = new RedBlueGrid(200, 3, 0.01, 0.5, 0.3, 2L);
+        parallel.setParallelism(pool);
+
+        serial.oneTimeStep();
+        parallel.oneTimeStep();
+        SimulateTests.assertSameGrid(serial, parallel, 200);
+        HappinessTests.assertCountsMatch(parallel, 200, 3);
+    }
+}
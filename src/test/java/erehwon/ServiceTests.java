@@ -0,0 +1,108 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServiceTests {
+
+    @Test
+    public void runsManySmallGrids() throws Exception {
+        List<RunReport> reports = new ArrayList<>();
+        try (SimulationService service = new SimulationService(16, null);
+             SimulationService.Scope scope = service.open(reports::add)) {
+            for (long seed = 0; seed < 500; seed++) {
+                scope.submit(new SweepSpec.Run(4 + (int) (seed % 13), 1, 0.3, 0.5, 0.5, seed), 20);
+            }
+            scope.join();
+        }
+
+        assertEquals(500, reports.size());
+        for (RunReport report : reports) {
+            assertEquals(RunReport.Status.COMPLETED, report.getStatus());
+            SweepSpec.Run run = report.getRun();
+            RedBlueGrid grid = new RedBlueGrid(run.getSize(), run.getDistance(), run.getFractionVacant(),
+                    run.getFractionRed(), run.getHappinessThreshold(), run.getSeed());
+            SimulationResult expected = grid.simulate(20);
+            assertEquals(expected.getCensus(), report.getResult().getCensus());
+            assertEquals(expected.getSteps(), report.getResult().getSteps());
+        }
+    }
+
+    @Test
+    public void timesOutLongRuns() throws Exception {
+        List<RunReport> reports = new ArrayList<>();
+        try (SimulationService service = new SimulationService(2, Duration.ofMillis(50));
+             SimulationService.Scope scope = service.open(reports::add)) {
+            scope.submit(new SweepSpec.Run(600, 3, 0.1, 0.5, 0.9, 1L), 100_000);
+            scope.join();
+        }
+        assertEquals(1, reports.size());
+        assertEquals(RunReport.Status.TIMED_OUT, reports.get(0).getStatus());
+        assertEquals(SimulationResult.Outcome.INTERRUPTED, reports.get(0).getResult().getOutcome());
+    }
+
+    @Test
+    public void failureCancelsScope() throws Exception {
+        List<RunReport> reports = new ArrayList<>();
+        try (SimulationService service = new SimulationService(4, null);
+             SimulationService.Scope scope = service.open(reports::add)) {
+            scope.submit(new SweepSpec.Run(0, 1, 0.3, 0.5, 0.5, 1L), 10);
+            ExecutionException thrown = assertThrows(ExecutionException.class, scope::join);
+            assertTrue(thrown.getCause() instanceof IllegalArgumentException);
+            assertTrue(scope.isCancelled());
+            assertThrows(CancellationException.class,
+                    () -> scope.submit(new SweepSpec.Run(5, 1, 0.3, 0.5, 0.5, 1L), 10));
+        }
+        assertEquals(RunReport.Status.FAILED, reports.get(0).getStatus());
+    }
+
+    @Test
+    public void sinkErrorCancelsScope() throws Exception {
+        try (SimulationService service = new SimulationService(4, null);
+             SimulationService.Scope scope = service.open(report -> {
+                 throw new AssertionError("sink");
+             })) {
+            scope.submit(new SweepSpec.Run(5, 1, 0.3, 0.5, 0.5, 1L), 10);
+            //join returns once the report has been through the sink, rather than waiting forever
+            ExecutionException thrown = assertThrows(ExecutionException.class, scope::join);
+            assertTrue(thrown.getCause() instanceof AssertionError);
+            assertTrue(scope.isCancelled());
+        }
+    }
+
+    @Test
+    public void closingServiceClosesScopes() throws Exception {
+        List<RunReport> reports = new ArrayList<>();
+        SimulationService service = new SimulationService(4, Duration.ofSeconds(60));
+        SimulationService.Scope scope = service.open(reports::add);
+        scope.submit(new SweepSpec.Run(600, 3, 0.1, 0.5, 0.9, 1L), 100_000);
+        service.close();
+
+        //the run is cancelled and reported rather than left going without its timeout
+        assertEquals(1, reports.size());
+        assertEquals(RunReport.Status.CANCELLED, reports.get(0).getStatus());
+        assertThrows(IllegalStateException.class,
+                () -> scope.submit(new SweepSpec.Run(5, 1, 0.3, 0.5, 0.5, 1L), 10));
+        assertThrows(IllegalStateException.class, () -> service.open(reports::add));
+        scope.join();
+    }
+
+    @Test
+    public void closeCancelsRunningRuns() throws Exception {
+        List<RunReport> reports = new ArrayList<>();
+        try (SimulationService service = new SimulationService(4, null)) {
+            try (SimulationService.Scope scope = service.open(reports::add)) {
+                scope.submit(new SweepSpec.Run(600, 3, 0.1, 0.5, 0.9, 1L), 100_000);
+            }
+        }
+        assertEquals(1, reports.size());
+        assertEquals(RunReport.Status.CANCELLED, reports.get(0).getStatus());
+    }
+}
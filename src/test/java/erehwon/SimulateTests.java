@@ -6,6 +6,8 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.awt.*;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -76,4 +78,128 @@ public class SimulateTests {
 
         assertEquals(sortedList, rbGrid.testBubbleSortParameter(list, Color.BLUE));
     }
+
+    @Test
+    public void sameSeedSameTrajectory() {
+        RedBlueGrid first = new RedBlueGrid(30, 1, 0.2, 0.5, 0.5, 42L);
+        RedBlueGrid second = new RedBlueGrid(30, 1, 0.2, 0.5, 0.5, 42L);
+        assertSameGrid(first, second, 30);
+
+        first.oneTimeStep();
+        second.oneTimeStep();
+        first.simulate(5);
+        second.simulate(5);
+        assertSameGrid(first, second, 30);
+
+        first.reset(0.3, 0.6, 0.4, 7L);
+        second.reset(0.3, 0.6, 0.4, 7L);
+        first.oneTimeStep();
+        second.oneTimeStep();
+        assertSameGrid(first, second, 30);
+
+        //a rejected reset keeps the generator the grid was drawing from
+        assertThrows(IllegalArgumentException.class, () -> first.reset(1.5, 0.6, 0.4, 8L));
+        first.oneTimeStep();
+        second.oneTimeStep();
+        assertSameGrid(first, second, 30);
+    }
+
+    @Test
+    public void simulateReportsConvergence() {
+        RedBlueGrid rbGrid = new RedBlueGrid(20, 1, 0.3, 0.5, 0.3, 5L);
+        SimulationResult result = rbGrid.simulate(200);
+        assertEquals(SimulationResult.Outcome.CONVERGED, result.getOutcome());
+        assertTrue(result.getSteps() < 200);
+        assertEquals(0, result.getCensus().getUnhappy());
+        assertEquals(1.0, result.getFractionHappy());
+        assertEquals(1.0, rbGrid.fractionHappy());
+
+        //already converged, so no steps are needed
+        assertEquals(0, rbGrid.simulate(10).getSteps());
+    }
+
+    @Test
+    public void simulateStopsWhenStalled() {
+        //nobody can ever be happy with a threshold of 1 and vacant neighbours
+        RedBlueGrid rbGrid = new RedBlueGrid(20, 1, 0.3, 0.5, 1.0, 5L);
+        rbGrid.setStallPolicy(3, 1000);
+        SimulationResult result = rbGrid.simulate(500);
+        assertEquals(SimulationResult.Outcome.STALLED, result.getOutcome());
+        assertTrue(result.getSteps() < 500);
+        assertEquals(rbGrid.census(), result.getCensus());
+    }
+
+    @Test
+    public void simulateHitsLimit() {
+        RedBlueGrid rbGrid = new RedBlueGrid(60, 2, 0.2, 0.5, 0.7, 5L);
+        SimulationResult result = rbGrid.simulate(1);
+        assertEquals(SimulationResult.Outcome.LIMIT, result.getOutcome());
+        assertEquals(1, result.getSteps());
+        assertEquals(rbGrid.fractionHappy(), result.getFractionHappy(), 1e-12);
+    }
+
+    @Test
+    public void stallPolicyIsChecked() {
+        RedBlueGrid rbGrid = new RedBlueGrid(10, 1, 0.3, 0.5, 0.5, 5L);
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.setStallPolicy(0, 5));
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.setStallPolicy(5, -1));
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.simulate(-1));
+    }
+
+    @Test
+    public void listenerSeesEveryStep() {
+        RedBlueGrid rbGrid = new RedBlueGrid(40, 1, 0.2, 0.5, 0.5, 11L);
+        List<StepStats> steps = new ArrayList<>();
+        List<SimulationResult> results = new ArrayList<>();
+        rbGrid.setSimulationListener(new SimulationListener() {
+            @Override
+            public void onStep(StepStats stats) {
+                steps.add(stats);
+            }
+
+            @Override
+            public void onFinish(SimulationResult result) {
+                results.add(result);
+            }
+        });
+        SimulationResult result = rbGrid.simulate(30);
+
+        assertEquals(List.of(result), results);
+        assertEquals(result.getSteps(), steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            assertEquals(i + 1, steps.get(i).getStep());
+            assertTrue(steps.get(i).getElapsedNanos() >= 0);
+        }
+        assertEquals(result.getCensus(), steps.get(steps.size() - 1).getCensus());
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.setSimulationListener(null));
+    }
+
+    @Test
+    public void statsWriterFormats() throws IOException {
+        HappinessCensus census = new HappinessCensus(3, 1, 2, 2);
+        StringWriter csv = new StringWriter();
+        try (StepStatsWriter writer = new StepStatsWriter(csv, StepStatsWriter.Format.CSV)) {
+            writer.onStep(new StepStats(1, 5, census, 100));
+        }
+        assertEquals("step,moves,happyRed,unhappyRed,happyBlue,unhappyBlue,fractionHappyRed,fractionHappyBlue,elapsedNanos\n"
+                + "1,5,3,1,2,2,0.75,0.5,100\n", csv.toString());
+
+        StringWriter jsonl = new StringWriter();
+        RedBlueGrid rbGrid = new RedBlueGrid(30, 1, 0.2, 0.5, 0.6, 3L);
+        try (StepStatsWriter writer = new StepStatsWriter(jsonl, StepStatsWriter.Format.JSONL)) {
+            rbGrid.setSimulationListener(writer);
+            SimulationResult result = rbGrid.simulate(10);
+            String[] lines = jsonl.toString().split("\n");
+            assertEquals(result.getSteps(), lines.length);
+            assertTrue(lines[0].startsWith("{\"step\":1,\"moves\":"));
+        }
+    }
+
+    static void assertSameGrid(RedBlueGrid expected, RedBlueGrid actual, int size) {
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                assertEquals(expected.getColor(row, col), actual.getColor(row, col));
+            }
+        }
+    }
 }
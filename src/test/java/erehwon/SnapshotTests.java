@@ -0,0 +1,85 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotTests {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void resumesSeededRun() throws IOException {
+        RedBlueGrid original = new RedBlueGrid(37, 2, 0.2, 0.4, 0.55, 12L);
+        original.oneTimeStep();
+        original.directedSteps();
+        Path file = folder.resolve("grid.rbgs");
+        GridSnapshot.save(original, file);
+        assertEquals(40 + (37 * 37 + 3) / 4, Files.size(file));
+
+        RedBlueGrid loaded = GridSnapshot.load(file);
+        assertEquals(37, loaded.getSize());
+        assertEquals(2, loaded.getNeighborhoodDistance());
+        assertEquals(0.55, loaded.getHappinessThreshold());
+        assertEquals(2, loaded.getStepCount());
+        SimulateTests.assertSameGrid(original, loaded, 37);
+        assertEquals(original.census(), loaded.census());
+
+        //the random number generator carries on where it was
+        original.oneTimeStep();
+        loaded.oneTimeStep();
+        original.simulate(5);
+        loaded.simulate(5);
+        SimulateTests.assertSameGrid(original, loaded, 37);
+        assertEquals(original.getStepCount(), loaded.getStepCount());
+    }
+
+    @Test
+    public void savesUnseededGrid() throws IOException {
+        RedBlueGrid original = new RedBlueGrid(5, 1, 0.3, 0.5, 0.5);
+        Path file = folder.resolve("small.rbgs");
+        GridSnapshot.save(original, file);
+        RedBlueGrid loaded = GridSnapshot.load(file);
+        SimulateTests.assertSameGrid(original, loaded, 5);
+        assertEquals(original.fractionHappy(), loaded.fractionHappy());
+    }
+
+    @Test
+    public void rejectsBadFiles() throws IOException {
+        Path file = folder.resolve("bad.rbgs");
+        Files.write(file, new byte[] {1, 2, 3});
+        assertThrows(IOException.class, () -> GridSnapshot.load(file));
+
+        GridSnapshot.save(new RedBlueGrid(8, 1, 0.3, 0.5, 0.5, 1L), file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] = (byte) 0xff;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> GridSnapshot.load(file));
+
+        bytes[0] = 'X';
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> GridSnapshot.load(file));
+    }
+
+    @Test
+    public void rejectsImpossibleThresholds() throws IOException {
+        Path file = folder.resolve("threshold.rbgs");
+        GridSnapshot.save(new RedBlueGrid(8, 1, 0.3, 0.5, 0.5, 1L), file);
+        byte[] saved = Files.readAllBytes(file);
+        for (double threshold : new double[] {Double.NaN, Double.POSITIVE_INFINITY, -0.5}) {
+            byte[] bytes = saved.clone();
+            //the threshold follows the magic, version, flags, size and neighborhood distance
+            ByteBuffer.wrap(bytes).putDouble(16, threshold);
+            Files.write(file, bytes);
+            assertThrows(IOException.class, () -> GridSnapshot.load(file), "threshold " + threshold);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new RedBlueGrid(8, 1, 0.3, 0.5, Double.NaN, 1L));
+    }
+}
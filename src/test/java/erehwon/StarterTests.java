@@ -15,8 +15,32 @@ public class StarterTests {
     @Test
     public void testCorrectCreation() {
         RedBlueGrid rbGrid = new RedBlueGrid(10, 1, 0.3, 0.4, 0.35);
-        // complete the test by verifying that the grid has the correct number
-        // of vacant, red, and blue cells
+        int vacant = 0;
+        int red = 0;
+        int blue = 0;
+        for (int row = 0; row < 10; row++) {
+            for (int col = 0; col < 10; col++) {
+                Color color = rbGrid.getColor(row, col);
+                if (color == Color.WHITE) {
+                    vacant++;
+                } else if (color == Color.RED) {
+                    red++;
+                } else if (color == Color.BLUE) {
+                    blue++;
+                }
+            }
+        }
+        assertEquals(30, vacant);
+        assertEquals(28, red);
+        assertEquals(42, blue);
+    }
+
+    @Test
+    public void testGetColorOutsideGrid() {
+        RedBlueGrid rbGrid = new RedBlueGrid(10, 1, 0.3, 0.4, 0.35);
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.getColor(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> rbGrid.getColor(-1, 0));
+        assertFalse(rbGrid.setColor(0, 10, Color.RED));
     }
 
     @Test
@@ -0,0 +1,91 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TiledTests {
+
+    @TempDir
+    Path folder;
+
+    /**
+     * Copies the cells of a tiled grid into a RedBlueGrid
+     */
+    private static RedBlueGrid toGrid(TiledGrid tiled) {
+        int size = tiled.getSize();
+        byte[] cells = new byte[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                cells[row * size + col] = CellState.fromColor(tiled.getColor(row, col));
+            }
+        }
+        return new RedBlueGrid(size, tiled.getNeighborhoodDistance(), tiled.getHappinessThreshold(),
+                new SplitMix64(0), cells, 0);
+    }
+
+    @Test
+    public void censusMatchesAcrossTiles() throws IOException {
+        //tiles of 8 over a grid of 45, so the halo of most blocks comes from several tiles
+        for (int distance = 1; distance <= 3; distance++) {
+            TiledGrid tiled = TiledGrid.create(null, 45, distance, 0.2, 0.5, 0.5, distance, 8);
+            assertFalse(tiled.isFileBacked());
+            assertEquals(toGrid(tiled).census(), tiled.census());
+        }
+    }
+
+    @Test
+    public void stepsKeepEveryResident() throws IOException {
+        TiledGrid tiled = TiledGrid.create(null, 40, 2, 0.25, 0.5, 0.6, 3L, 8);
+        RedBlueGrid before = toGrid(tiled);
+        long unhappy = tiled.census().getUnhappy();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(tiled.oneTimeStep() >= 0);
+        }
+        assertEquals(6, tiled.getStepCount());
+        RedBlueGrid after = toGrid(tiled);
+        HappinessCensus census = tiled.census();
+        assertEquals(after.census(), census);
+        assertEquals(before.census().getHappyRed() + before.census().getUnhappyRed(),
+                census.getHappyRed() + census.getUnhappyRed());
+        assertEquals(before.census().getHappyBlue() + before.census().getUnhappyBlue(),
+                census.getHappyBlue() + census.getUnhappyBlue());
+        assertTrue(census.getUnhappy() < unhappy);
+    }
+
+    @Test
+    public void fileBackedGridReopens() throws IOException {
+        Path file = folder.resolve("cells.tiles");
+        TiledGrid mapped = TiledGrid.create(file, 30, 1, 0.3, 0.4, 0.5, 7L, 16);
+        TiledGrid direct = TiledGrid.create(null, 30, 1, 0.3, 0.4, 0.5, 7L, 16);
+        assertTrue(mapped.isFileBacked());
+        SimulateTests.assertSameGrid(toGrid(direct), toGrid(mapped), 30);
+
+        SimulationResult result = mapped.simulate(20);
+        direct.simulate(20);
+        SimulateTests.assertSameGrid(toGrid(direct), toGrid(mapped), 30);
+        assertEquals(mapped.census(), result.getCensus());
+
+        assertTrue(mapped.setColor(0, 0, Color.BLUE));
+        assertFalse(mapped.setColor(30, 0, Color.BLUE));
+        mapped.flush();
+        TiledGrid reopened = TiledGrid.open(file, 30, 1, 0.5, 7L, 16);
+        assertSame(Color.BLUE, reopened.getColor(0, 0));
+        SimulateTests.assertSameGrid(toGrid(mapped), toGrid(reopened), 30);
+
+        assertThrows(IOException.class, () -> TiledGrid.open(file, 33, 1, 0.5, 7L, 16));
+        assertThrows(IllegalArgumentException.class, () -> TiledGrid.create(null, 30, 17, 0.3, 0.4, 0.5, 7L, 16));
+
+        //a corrupt cell is refused when the file is opened, not met in the middle of a step
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] = 7;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> TiledGrid.open(file, 30, 1, 0.5, 7L, 16));
+    }
+}
@@ -0,0 +1,130 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrajectoryTests {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void replaysEveryStep() throws IOException {
+        RedBlueGrid original = new RedBlueGrid(29, 1, 0.25, 0.5, 0.6, 5L);
+        Path start = folder.resolve("start.rbgs");
+        Path middle = folder.resolve("middle.rbgs");
+        Path log = folder.resolve("run.rbgt");
+        GridSnapshot.save(original, start);
+
+        try (TrajectoryRecorder recorder = TrajectoryRecorder.open(log)) {
+            original.setTrajectoryRecorder(recorder);
+            original.oneTimeStep();
+            original.directedSteps();
+            original.setColor(0, 0, Color.RED);
+            original.shiftColor(3, 4);
+            original.oneTimeStep();
+            GridSnapshot.save(original, middle);
+            original.simulate(6);
+        }
+        original.setTrajectoryRecorder(null);
+
+        RedBlueGrid atThree = TrajectoryReplayer.replay(start, log, 3);
+        SimulateTests.assertSameGrid(GridSnapshot.load(middle), atThree, 29);
+        assertEquals(3, atThree.getStepCount());
+
+        //from a snapshot in the middle of the log, to the end, and on from there
+        long last = original.getStepCount();
+        RedBlueGrid atEnd = TrajectoryReplayer.replay(middle, log, last);
+        SimulateTests.assertSameGrid(original, atEnd, 29);
+        assertEquals(last, atEnd.getStepCount());
+        original.simulate(3);
+        atEnd.simulate(3);
+        SimulateTests.assertSameGrid(original, atEnd, 29);
+
+        assertThrows(IOException.class, () -> TrajectoryReplayer.replay(start, log, last + 1));
+        assertThrows(IllegalArgumentException.class, () -> TrajectoryReplayer.replay(middle, log, 2));
+    }
+
+    @Test
+    public void scanSeesEveryMove() throws IOException {
+        RedBlueGrid grid = new RedBlueGrid(16, 1, 0.3, 0.5, 0.5, 9L);
+        Path log = folder.resolve("scan.rbgt");
+        int moves = 0;
+        try (TrajectoryRecorder recorder = TrajectoryRecorder.open(log)) {
+            grid.setTrajectoryRecorder(recorder);
+            moves += grid.oneTimeStep();
+            moves += grid.directedSteps();
+            grid.setColor(2, 2, Color.WHITE);
+        }
+
+        int[] seen = new int[3];
+        long last = TrajectoryReplayer.scan(log, new TrajectoryReplayer.Visitor() {
+            @Override
+            public void onStep(long step, int records) {
+                seen[0]++;
+            }
+
+            @Override
+            public void onMove(int from, int to, Color colour) {
+                if (from == to) {
+                    seen[2]++;
+                    assertEquals(2 * 16 + 2, to);
+                    assertSame(Color.WHITE, colour);
+                } else {
+                    seen[1]++;
+                    assertNotSame(Color.WHITE, colour);
+                }
+            }
+        });
+        //an empty block marks the step the recorder was attached at, and the cell set after the last step
+        //gets a block of its own when the recorder is closed
+        assertEquals(4, seen[0]);
+        assertEquals(moves, seen[1]);
+        assertEquals(1, seen[2]);
+        assertEquals(2, last);
+    }
+
+    @Test
+    public void replaysCellsSetBeforeAnyStep() throws IOException {
+        RedBlueGrid original = new RedBlueGrid(14, 1, 0.3, 0.5, 0.5, 6L);
+        original.simulate(4);
+        Path snapshot = folder.resolve("loaded.rbgs");
+        Path log = folder.resolve("loaded.rbgt");
+        GridSnapshot.save(original, snapshot);
+
+        RedBlueGrid loaded = GridSnapshot.load(snapshot);
+        try (TrajectoryRecorder recorder = TrajectoryRecorder.open(log)) {
+            loaded.setTrajectoryRecorder(recorder);
+            loaded.setColor(0, 0, Color.BLUE);
+            loaded.setColor(13, 13, Color.RED);
+        }
+        RedBlueGrid replayed = TrajectoryReplayer.replay(snapshot, log, loaded.getStepCount());
+        SimulateTests.assertSameGrid(loaded, replayed, 14);
+        assertEquals(loaded.getStepCount(), replayed.getStepCount());
+    }
+
+    @Test
+    public void rejectsLogOfAnotherGrid() throws IOException {
+        Path log = folder.resolve("other.rbgt");
+        Path snapshot = folder.resolve("other.rbgs");
+        GridSnapshot.save(new RedBlueGrid(12, 1, 0.3, 0.5, 0.5, 1L), snapshot);
+        RedBlueGrid other = new RedBlueGrid(12, 1, 0.3, 0.5, 0.5, 2L);
+        try (TrajectoryRecorder recorder = TrajectoryRecorder.open(log)) {
+            other.setTrajectoryRecorder(recorder);
+            for (int i = 0; i < 3; i++) {
+                other.oneTimeStep();
+            }
+        }
+        assertThrows(IOException.class, () -> TrajectoryReplayer.replay(snapshot, log, 3));
+
+        Files.write(log, new byte[] {1, 2});
+        assertThrows(IOException.class, () -> TrajectoryReplayer.replay(snapshot, log, 0));
+    }
+}
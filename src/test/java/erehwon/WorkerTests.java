@@ -0,0 +1,73 @@
+package erehwon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkerTests {
+
+    @Test
+    public void runsLikeSimulate() throws Exception {
+        RedBlueGrid grid = new RedBlueGrid(40, 1, 0.2, 0.5, 0.6, 21L);
+        RedBlueGrid twin = new RedBlueGrid(40, 1, 0.2, 0.5, 0.6, 21L);
+        AtomicInteger frames = new AtomicInteger();
+        CompletableFuture<SimulationResult> done = new CompletableFuture<>();
+        SimulationWorker worker = new SimulationWorker(grid, frame -> {
+            assertEquals(40, frame.getSize());
+            assertTrue(frame.getStats().getStep() >= 1);
+            frames.incrementAndGet();
+        }, done::complete, 1000);
+
+        assertTrue(worker.start(30));
+        SimulationResult result = done.get(30, TimeUnit.SECONDS);
+        SimulationResult expected = twin.simulate(30);
+        assertEquals(expected.getSteps(), result.getSteps());
+        assertEquals(expected.getOutcome(), result.getOutcome());
+        SimulateTests.assertSameGrid(twin, grid, 40);
+        assertTrue(frames.get() >= 1);
+        assertFalse(worker.isRunning());
+    }
+
+    @Test
+    public void stopsWhilePaused() throws Exception {
+        RedBlueGrid grid = new RedBlueGrid(40, 1, 0.2, 0.5, 0.6, 22L);
+        CompletableFuture<SimulationResult> done = new CompletableFuture<>();
+        SimulationWorker worker = new SimulationWorker(grid, frame -> { }, done::complete, 60);
+        worker.pause();
+        assertTrue(worker.start(50));
+        assertFalse(worker.start(50));
+        Thread.sleep(50);
+        assertTrue(worker.isRunning());
+        worker.stop();
+        assertFalse(worker.isRunning());
+
+        SimulationResult result = done.get(30, TimeUnit.SECONDS);
+        //the first step is taken before the worker is first told it is paused
+        assertEquals(1, result.getSteps());
+        assertEquals(SimulationResult.Outcome.INTERRUPTED, result.getOutcome());
+        assertFalse(worker.isPaused());
+    }
+
+    @Test
+    public void reportsFailure() throws Exception {
+        RedBlueGrid grid = new RedBlueGrid(20, 1, 0.2, 0.5, 0.6, 23L);
+        CompletableFuture<SimulationResult> done = new CompletableFuture<>();
+        SimulationWorker worker = new SimulationWorker(grid, frame -> { }, done::complete, 60);
+        worker.setStepListener(stats -> {
+            throw new IllegalStateException("listener");
+        });
+        //the failure goes on to the thread's handler; keep it out of the test output
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> { });
+        try {
+            assertTrue(worker.start(10));
+            assertNull(done.get(30, TimeUnit.SECONDS));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}